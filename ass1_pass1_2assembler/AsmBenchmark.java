@@ -0,0 +1,110 @@
+import java.util.*;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.StringReader;
+import java.io.Writer;
+
+/*
+ * Micro-benchmarks for OPtable lookups, Pass1asm and Pass2asm on synthetic
+ * sources. Each benchmark runs warmup iterations first, then reports the
+ * mean and best time per iteration. The generator is seeded so the same
+ * parameters always give the same program.
+ *
+ * Usage: java AsmBenchmark [lines] [literalDensity] [ltorgEvery] [warmup] [iterations]
+ *   lines          IS instructions in the program          (default 10000)
+ *   literalDensity fraction of instructions using ='n'      (default 0.2)
+ *   ltorgEvery     instructions between LTORGs, 0 for none  (default 100)
+ */
+public class AsmBenchmark {
+
+	interface Task
+	{
+		void run() throws Exception;
+	}
+
+	static long sink; //results are folded in here so the JIT cannot drop the work
+
+	public static void main(String[] args) throws Exception {
+		int lines=args.length>0?Integer.parseInt(args[0]):10000;
+		double literals=args.length>1?Double.parseDouble(args[1]):0.2;
+		int ltorg=args.length>2?Integer.parseInt(args[2]):100;
+		int warmup=args.length>3?Integer.parseInt(args[3]):5;
+		int iterations=args.length>4?Integer.parseInt(args[4]):10;
+
+		String src=generate(lines,literals,ltorg,42);
+		System.out.println("lines="+lines+" literalDensity="+literals+" ltorgEvery="+ltorg
+				+" warmup="+warmup+" iterations="+iterations);
+
+		String tokens[]=src.split("[\\s,]+");
+		measure("OPtable.lookup ("+tokens.length+" tokens)",warmup,iterations,() -> {
+			for(String t : tokens)
+				sink+=OPtable.lookup(t);
+		});
+		measure("Pass1asm.assemble",warmup,iterations,() -> {
+			Pass1asm pass1=new Pass1asm();
+			pass1.assemble(new BufferedReader(new StringReader(src)));
+			sink+=pass1.IC.size();
+		});
+		Pass1asm pass1=new Pass1asm();
+		pass1.assemble(new BufferedReader(new StringReader(src)));
+		measure("Pass2asm.generateCode",warmup,iterations,() -> {
+			new Pass2asm().generateCode(pass1,new BufferedWriter(Writer.nullWriter()));
+		});
+		if(sink==42)
+			System.out.println();
+	}
+
+	static void measure(String name,int warmup,int iterations,Task task) throws Exception
+	{
+		for(int i=0;i<warmup;i++)
+			task.run();
+		long total=0,best=Long.MAX_VALUE;
+		for(int i=0;i<iterations;i++)
+		{
+			long start=System.nanoTime();
+			task.run();
+			long t=System.nanoTime()-start;
+			total+=t;
+			best=Math.min(best,t);
+		}
+		System.out.println(String.format("%-40s mean %10.1f us   best %10.1f us",name,total/1e3/iterations,best/1e3));
+	}
+
+	/*
+	 * Program of n IS instructions over a block of DC constants, with roughly
+	 * literalDensity of them using a literal, an LTORG every ltorgEvery
+	 * instructions and a backward branch every 10.
+	 */
+	static String generate(int n,double literalDensity,int ltorgEvery,long seed)
+	{
+		Random rnd=new Random(seed);
+		String ops[]={"MOVER","MOVEM","ADD","SUB","MULT","COMP"};
+		String regs[]={"AREG","BREG","CREG"};
+		String conds[]={"LT","LE","EQ","GT","GE","ANY"};
+		int data=Math.max(1,n/10);
+		StringBuilder sb=new StringBuilder();
+		sb.append("\tSTART\t100\n");
+		for(int i=0;i<n;i++)
+		{
+			if(i%10==0)
+				sb.append("L").append(i);
+			if(i%10==9)
+				sb.append("\tBC\t").append(conds[rnd.nextInt(conds.length)]).append(",\tL").append(i-9).append('\n');
+			else
+			{
+				sb.append('\t').append(ops[rnd.nextInt(ops.length)]).append('\t').append(regs[rnd.nextInt(regs.length)]).append(",\t");
+				if(rnd.nextDouble()<literalDensity)
+					sb.append("='").append(rnd.nextInt(100)).append("'\n");
+				else
+					sb.append('D').append(rnd.nextInt(data)).append('\n');
+			}
+			if(ltorgEvery>0 && i%ltorgEvery==ltorgEvery-1)
+				sb.append("\tLTORG\n");
+		}
+		sb.append("\tSTOP\n");
+		for(int i=0;i<data;i++)
+			sb.append('D').append(i).append("\tDC\t").append(i%10).append('\n');
+		sb.append("\tEND\n");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,96 @@
+import java.lang.management.ManagementFactory;
+import javax.management.ObjectName;
+
+/*
+ * Counters and phase timers for one or more assembler runs.
+ *
+ *   lines, symbols, literals, pools   Pass-I input and table sizes
+ *   records                           IC records handed to Pass-II
+ *   lexNanos                          reading and splitting source lines
+ *   lookupNanos                       OPtable, SYMTAB and literal pool lookups
+ *   emitNanos                         rest of Pass-I (location counter, IC records)
+ *   codegenNanos                      Pass-II
+ *   pass1Bytes, pass2Bytes            heap allocated by the thread during each pass
+ *
+ * Pass1asm and Pass2asm only measure when their metrics field is set, so a
+ * normal run pays nothing. One instance belongs to one thread while it is
+ * being filled; add() merges finished runs into a shared total.
+ */
+public class AsmMetrics implements AsmMetricsMBean {
+
+	long lines,symbols,literals,pools,records;
+	long lexNanos,lookupNanos,emitNanos,codegenNanos;
+	long pass1Bytes,pass2Bytes;
+
+	public synchronized void add(AsmMetrics m)
+	{
+		lines+=m.lines;
+		symbols+=m.symbols;
+		literals+=m.literals;
+		pools+=m.pools;
+		records+=m.records;
+		lexNanos+=m.lexNanos;
+		lookupNanos+=m.lookupNanos;
+		emitNanos+=m.emitNanos;
+		codegenNanos+=m.codegenNanos;
+		pass1Bytes+=m.pass1Bytes;
+		pass2Bytes+=m.pass2Bytes;
+	}
+
+	//Heap allocated by the current thread so far, -1 if the JVM cannot tell
+	static long allocatedBytes()
+	{
+		java.lang.management.ThreadMXBean threads=ManagementFactory.getThreadMXBean();
+		if(threads instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean)threads).getCurrentThreadAllocatedBytes();
+		return -1;
+	}
+
+	//Registers this instance with the platform MBean server as SPOS:type=AsmMetrics,name=<name>
+	public void register(String name) throws Exception
+	{
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this,new ObjectName("SPOS:type=AsmMetrics,name="+name));
+	}
+
+	public synchronized long getLines() {
+		return lines;
+	}
+	public synchronized long getSymbols() {
+		return symbols;
+	}
+	public synchronized long getLiterals() {
+		return literals;
+	}
+	public synchronized long getPools() {
+		return pools;
+	}
+	public synchronized long getRecords() {
+		return records;
+	}
+	public synchronized long getLexNanos() {
+		return lexNanos;
+	}
+	public synchronized long getLookupNanos() {
+		return lookupNanos;
+	}
+	public synchronized long getEmitNanos() {
+		return emitNanos;
+	}
+	public synchronized long getCodegenNanos() {
+		return codegenNanos;
+	}
+	public synchronized long getPass1Bytes() {
+		return pass1Bytes;
+	}
+	public synchronized long getPass2Bytes() {
+		return pass2Bytes;
+	}
+
+	public synchronized String toJson()
+	{
+		return "{\"lines\":"+lines+",\"symbols\":"+symbols+",\"literals\":"+literals+",\"pools\":"+pools
+				+",\"records\":"+records
+				+",\"nanos\":{\"lex\":"+lexNanos+",\"lookup\":"+lookupNanos+",\"emit\":"+emitNanos+",\"codegen\":"+codegenNanos+"}"
+				+",\"allocatedBytes\":{\"pass1\":"+pass1Bytes+",\"pass2\":"+pass2Bytes+"}}";
+	}
+}
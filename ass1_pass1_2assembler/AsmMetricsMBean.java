@@ -0,0 +1,21 @@
+/*
+ * JMX view of AsmMetrics (standard MBean, read-only).
+ */
+public interface AsmMetricsMBean {
+
+	long getLines();
+	long getSymbols();
+	long getLiterals();
+	long getPools();
+	long getRecords();
+
+	long getLexNanos();
+	long getLookupNanos();
+	long getEmitNanos();
+	long getCodegenNanos();
+
+	long getPass1Bytes();
+	long getPass2Bytes();
+
+	String toJson();
+}
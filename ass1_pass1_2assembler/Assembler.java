@@ -0,0 +1,133 @@
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+
+/*
+ * Runs Pass-I and Pass-II in one process: the tables and the intermediate
+ * code are handed over in memory instead of going through IC.txt,
+ * SYMTAB.txt and LITTAB.txt.
+ *
+ * Usage: java Assembler [source] [output] [-dump] [-fixed|-binary|-rel] [-O] [-metrics] [-isa=file]
+ *   -dump    also writes IC.txt, SYMTAB.txt, LITTAB.txt and POOLTAB.txt
+ *   -fixed   fixed-width text records through a memory-mapped file
+ *   -binary  binary object file (see MappedObjectWriter)
+ *   -rel     relocatable module for Linker (see RelocatableObjectWriter); ENTRY A,B exports
+ *            symbols, EXTRN X,Y names the ones other modules define
+ *   -O       runs the PeepholeOptimizer between the passes and prints its stats
+ *   -metrics prints the AsmMetrics of the run as JSON
+ *   -isa     instruction set definition for OPtable (snapshot cached as file.ser)
+ */
+public class Assembler {
+
+	//Options of a run, set before assemble()
+	String dumpPrefix;          //prefix of the table dump files, null skips the dump
+	int format;                 //0 for the PASS2.txt text format, else MappedObjectWriter.FIXED/BINARY or RelocatableObjectWriter.FORMAT
+	AsmMetrics metrics;         //gets the counters and timers of both passes, null unless measured
+	PeepholeOptimizer peephole; //optimizes the IC between the passes, null to skip
+
+	public static void main(String[] args) {
+		String src="input.txt",out="PASS2.txt";
+		Assembler asm=new Assembler();
+		String isa=null;
+		int n=0;
+		for(String arg : args)
+		{
+			if(arg.equals("-dump"))
+				asm.dumpPrefix="";
+			else if(arg.equals("-fixed"))
+				asm.format=MappedObjectWriter.FIXED;
+			else if(arg.equals("-binary"))
+				asm.format=MappedObjectWriter.BINARY;
+			else if(arg.equals("-rel"))
+				asm.format=RelocatableObjectWriter.FORMAT;
+			else if(arg.equals("-O"))
+				asm.peephole=new PeepholeOptimizer();
+			else if(arg.startsWith("-isa="))
+				isa=arg.substring(5);
+			else if(arg.equals("-metrics"))
+				asm.metrics=new AsmMetrics();
+			else if(arg.startsWith("-") || n==2)
+			{
+				//a mistyped option would otherwise become the output file
+				System.out.println((arg.startsWith("-")?"Unknown option ":"Unexpected argument ")+arg);
+				System.out.println("Usage: java Assembler [source] [output] [-dump] [-fixed|-binary|-rel] [-O] [-metrics] [-isa=file]");
+				return;
+			}
+			else if(n++==0)
+				src=arg;
+			else
+				out=arg;
+		}
+		try
+		{
+			if(isa!=null)
+				OPtable.use(OPtable.load(isa,true));
+			asm.assemble(src,out);
+			if(asm.peephole!=null)
+				System.out.println(asm.peephole.stats());
+			if(asm.metrics!=null)
+				System.out.println(asm.metrics.toJson());
+		}
+		catch (Exception e) {
+			System.out.println("Error: "+e);
+		}
+	}
+
+	//Assembles src into out with the options above; returns the finished Pass-I
+	public Pass1asm assemble(String src,String out) throws Exception
+	{
+		Pass1asm pass1=new Pass1asm();
+		pass1.metrics=metrics;
+		pass1.diagnostics=new Diagnostics(src);
+		pass1.externals=format==RelocatableObjectWriter.FORMAT;
+		BufferedReader br=new BufferedReader(new FileReader(src));
+		pass1.assemble(br);
+		br.close();
+		pass1.checkDiagnostics();
+		if(peephole!=null)
+			peephole.optimize(pass1);
+		if(dumpPrefix!=null)
+			pass1.dump(dumpPrefix);
+
+		Pass2asm pass2=new Pass2asm();
+		pass2.metrics=metrics;
+		if(format==0)
+		{
+			BufferedWriter bw=new BufferedWriter(new FileWriter(out));
+			try
+			{
+				pass2.generateCode(pass1,bw);
+			}
+			finally
+			{
+				bw.close();
+			}
+		}
+		else if(format==RelocatableObjectWriter.FORMAT)
+		{
+			RelocatableObjectWriter writer=new RelocatableObjectWriter(out,pass1.SYMTAB,pass1.entries);
+			try
+			{
+				pass2.generateCode(pass1,writer);
+			}
+			catch (Exception e) {
+				writer.discard();
+				throw e;
+			}
+		}
+		else
+		{
+			MappedObjectWriter writer=new MappedObjectWriter(out,format);
+			try
+			{
+				pass2.generateCode(pass1,writer);
+			}
+			catch (Exception e) {
+				writer.discard();
+				throw e;
+			}
+		}
+		return pass1;
+	}
+}
@@ -0,0 +1,110 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.io.File;
+
+/*
+ * Assembles every source file of a directory concurrently.
+ * Each file gets its own Pass1asm/Pass2asm pair (OPtable is shared and
+ * read-only), and writes <file name>_PASS2.txt (p1.asm_PASS2.txt) into the
+ * output directory.
+ * The work queue is bounded: once it is full the submitting thread
+ * assembles the file itself, so a huge directory never piles up tasks.
+ *
+ * With -metrics every file is measured and merged into one AsmMetrics, which
+ * is registered over JMX while the batch runs and printed as JSON at the end.
+ *
+ * -isa=file loads the instruction set once; the OPtable is shared by all threads.
+ *
+ * Usage: java BatchAssembler <srcDir> <outDir> [threads] [-dump] [-metrics] [-isa=file]
+ */
+public class BatchAssembler {
+
+	AtomicLong files=new AtomicLong(),lines=new AtomicLong();
+	ConcurrentLinkedQueue<String> errors=new ConcurrentLinkedQueue<>();
+	AsmMetrics metrics; //total over all files, null unless measured
+
+	public static void main(String[] args) {
+		if(args.length<2)
+		{
+			System.out.println("Usage: java BatchAssembler <srcDir> <outDir> [threads] [-dump] [-metrics] [-isa=file]");
+			return;
+		}
+		int threads=Runtime.getRuntime().availableProcessors();
+		boolean dump=false,measure=false;
+		String isa=null;
+		for(int i=2;i<args.length;i++)
+		{
+			if(args[i].equals("-dump"))
+				dump=true;
+			else if(args[i].equals("-metrics"))
+				measure=true;
+			else if(args[i].startsWith("-isa="))
+				isa=args[i].substring(5);
+			else
+				threads=Integer.parseInt(args[i]);
+		}
+		try
+		{
+			if(isa!=null)
+				OPtable.use(OPtable.load(isa,true));
+			BatchAssembler batch=new BatchAssembler();
+			if(measure)
+			{
+				batch.metrics=new AsmMetrics();
+				batch.metrics.register("batch");
+			}
+			batch.run(new File(args[0]),new File(args[1]),threads,dump);
+			if(measure)
+				System.out.println(batch.metrics.toJson());
+		}
+		catch (Exception e) {
+			System.out.println("Error: "+e);
+		}
+	}
+
+	public void run(File srcDir,File outDir,int threads,boolean dump) throws Exception
+	{
+		File sources[]=srcDir.listFiles(File::isFile);
+		if(sources==null)
+			throw new IllegalArgumentException("Not a directory: "+srcDir);
+		outDir.mkdirs();
+
+		ThreadPoolExecutor pool=new ThreadPoolExecutor(threads,threads,0L,TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(threads*4),new ThreadPoolExecutor.CallerRunsPolicy());
+		long start=System.nanoTime();
+		for(File src : sources)
+			pool.execute(() -> assembleOne(src,outDir,dump));
+		pool.shutdown();
+		pool.awaitTermination(Long.MAX_VALUE,TimeUnit.NANOSECONDS);
+		long elapsed=System.nanoTime()-start;
+
+		for(String e : errors)
+			System.out.println(e);
+		double secs=elapsed/1e9;
+		System.out.println("Assembled "+files.get()+" of "+sources.length+" files ("+lines.get()+" lines) on "
+				+threads+" threads in "+String.format("%.3f",secs)+" s");
+		System.out.println(String.format("Throughput: %.1f files/s, %.1f lines/s",files.get()/secs,lines.get()/secs));
+	}
+
+	void assembleOne(File src,File outDir,boolean dump)
+	{
+		String name=src.getName();
+		//the whole file name, extension included: p1.asm and p1.txt must not share an output
+		String prefix=new File(outDir,name+"_").getPath();
+		try
+		{
+			Assembler asm=new Assembler();
+			asm.dumpPrefix=dump?prefix:null;
+			asm.metrics=metrics!=null?new AsmMetrics():null;
+			Pass1asm pass1=asm.assemble(src.getPath(),prefix+"PASS2.txt");
+			if(asm.metrics!=null)
+				metrics.add(asm.metrics);
+			files.incrementAndGet();
+			lines.addAndGet(pass1.lines);
+		}
+		catch (Exception e) {
+			errors.add("Error: "+name+": "+e);
+		}
+	}
+}
@@ -0,0 +1,54 @@
+import java.util.*;
+
+/*
+ * Errors found while assembling one source, so a run can go on after a bad
+ * statement and report every problem at the end instead of stopping at the
+ * first one. Lines and columns are 1-based; a tab counts as one column.
+ *
+ *   input.txt:12:9: Undefined symbol LOOP
+ *
+ * errors.txt has one statement for every check Pass1asm makes
+ * (java Assembler errors.txt lists them all).
+ */
+public class Diagnostics {
+
+	String file;
+	int lines[]=new int[16],columns[]=new int[16];
+	ArrayList<String> messages=new ArrayList<>();
+
+	public Diagnostics(String file)
+	{
+		this.file=file;
+	}
+
+	public void error(int line,int column,String message)
+	{
+		int n=messages.size();
+		if(n==lines.length)
+		{
+			lines=Arrays.copyOf(lines,n*2);
+			columns=Arrays.copyOf(columns,n*2);
+		}
+		lines[n]=line;
+		columns[n]=column;
+		messages.add(message);
+	}
+
+	public int count() {
+		return messages.size();
+	}
+
+	//Every error, ordered by line and column, after a one-line summary
+	public String toString()
+	{
+		Integer order[]=new Integer[count()];
+		for(int i=0;i<order.length;i++)
+			order[i]=i;
+		Arrays.sort(order,(a,b) -> lines[a]!=lines[b]?Integer.compare(lines[a],lines[b]):Integer.compare(columns[a],columns[b]));
+		StringBuilder sb=new StringBuilder();
+		sb.append(count()).append(count()==1?" error in ":" errors in ").append(file);
+		for(int i : order)
+			sb.append('\n').append(file).append(':').append(lines[i]).append(':').append(columns[i]).append(": ").append(messages.get(i));
+		return sb.toString();
+	}
+}
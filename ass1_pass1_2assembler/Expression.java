@@ -0,0 +1,165 @@
+/*
+ * Address expression for START, ORIGIN and EQU: a chain of symbols and
+ * constants joined by + - and *, e.g. TABLE+2*SIZE-1 (* binds tighter,
+ * a leading - negates).
+ *
+ * The text is compiled once into a postfix program over SYMTAB indices;
+ * evaluate() then only walks that program, so the same operand is never
+ * parsed twice and a symbol defined later is picked up when it is evaluated
+ * again. A symbol that does not exist yet is entered in SYMTAB as a forward
+ * reference (address -1). Pass1asm rejects a negative result, so a symbol
+ * with an address below 0 is always one that is not defined yet.
+ */
+public class Expression {
+
+	static final int CONST=0,SYM=1,ADD=2,SUB=3,MUL=4,NEG=5;
+	//returned by evaluate() while a symbol in the expression has no address
+	static final int UNRESOLVED=Integer.MIN_VALUE;
+
+	int code[]=new int[8];
+	int length;
+	int stack[];
+
+	//parser state, only used while compiling
+	CharSequence s;
+	int pos,end;
+	SymbolTable symtab;
+
+	public static Expression compile(CharSequence s,int off,int len,SymbolTable symtab)
+	{
+		Expression e=new Expression();
+		e.s=s;
+		e.pos=off;
+		e.end=off+len;
+		e.symtab=symtab;
+		e.sum();
+		if(e.pos!=e.end)
+			throw new IllegalArgumentException("Bad expression "+s.subSequence(off,off+len));
+		e.s=null;
+		e.symtab=null;
+		e.stack=new int[e.length];
+		return e;
+	}
+
+	void sum()
+	{
+		product();
+		while(pos<end && (s.charAt(pos)=='+' || s.charAt(pos)=='-'))
+		{
+			int op=s.charAt(pos++)=='+'?ADD:SUB;
+			product();
+			emit(op);
+		}
+	}
+
+	void product()
+	{
+		factor();
+		while(pos<end && s.charAt(pos)=='*')
+		{
+			pos++;
+			factor();
+			emit(MUL);
+		}
+	}
+
+	void factor()
+	{
+		if(pos<end && (s.charAt(pos)=='-' || s.charAt(pos)=='+'))
+		{
+			boolean neg=s.charAt(pos++)=='-';
+			factor();
+			if(neg)
+				emit(NEG);
+			return;
+		}
+		int start=pos;
+		while(pos<end && "+-*".indexOf(s.charAt(pos))<0)
+			pos++;
+		if(pos==start)
+			throw new IllegalArgumentException("Missing operand in expression");
+		char c=s.charAt(start);
+		if((c>='0' && c<='9') || c=='\'')
+		{
+			emit(CONST);
+			emit(SourceLexer.parseInt(s,start,pos-start));
+		}
+		else
+		{
+			int index=symtab.find(s,start,pos-start);
+			if(index==0) //forward reference
+				index=symtab.define(s,start,pos-start,-1);
+			emit(SYM);
+			emit(index);
+		}
+	}
+
+	void emit(int v)
+	{
+		if(length==code.length)
+			code=java.util.Arrays.copyOf(code,length*2);
+		code[length++]=v;
+	}
+
+	//SYMTAB index of the first symbol in the expression that has no address yet, 0 if there is none
+	public int waitingOn(SymbolTable symtab)
+	{
+		for(int pc=0;pc<length;pc++)
+		{
+			if(code[pc]==CONST)
+				pc++;
+			else if(code[pc]==SYM && symtab.address(code[++pc])<0)
+				return code[pc];
+		}
+		return 0;
+	}
+
+	//true if every symbol in the expression is an EQU with a plain-number value (constants, see Pass1asm)
+	public boolean constant(IntMap constants)
+	{
+		for(int pc=0;pc<length;pc++)
+		{
+			if(code[pc]==CONST)
+				pc++;
+			else if(code[pc]==SYM && constants.get(code[++pc],0)==0)
+				return false;
+		}
+		return true;
+	}
+
+	public int evaluate(SymbolTable symtab)
+	{
+		int sp=0;
+		for(int pc=0;pc<length;pc++)
+		{
+			switch(code[pc])
+			{
+			case CONST:
+				stack[sp++]=code[++pc];
+				break;
+			case SYM:
+				int address=symtab.address(code[++pc]);
+				if(address<0)
+					return UNRESOLVED;
+				stack[sp++]=address;
+				break;
+			case ADD:
+				sp--;
+				stack[sp-1]+=stack[sp];
+				break;
+			case SUB:
+				sp--;
+				stack[sp-1]-=stack[sp];
+				break;
+			case MUL:
+				sp--;
+				stack[sp-1]*=stack[sp];
+				break;
+			case NEG:
+				stack[sp-1]=-stack[sp-1];
+				break;
+			}
+		}
+		return stack[0];
+	}
+}
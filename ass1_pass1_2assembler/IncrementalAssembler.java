@@ -0,0 +1,279 @@
+import java.util.*;
+import java.io.FileWriter;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/*
+ * Re-assembles a source that changed since the last run from the first changed
+ * line on, instead of from scratch.
+ *
+ * Before every line a Checkpoint of the Pass-I state is kept (location counter,
+ * pool pointers, table sizes, SYMTAB journal position, IC size, waiting EQUs) together with
+ * the line's hash. On the next run the first line whose hash/text differs is
+ * found, Pass-I is rolled back to that line's checkpoint and only the rest of
+ * the source is processed again.
+ *
+ * Pass-II words are cached as resolved addresses per IC record. Every
+ * symbol/literal keeps a chain of the IC records that use it (symFirst/litFirst
+ * hold the newest record + 1, next[] links to the previous one), so words
+ * before the changed line are only re-patched when the address they point
+ * to actually moved.
+ */
+public class IncrementalAssembler {
+
+	static class Checkpoint
+	{
+		int lc,newptr,pre,pooltab_ptr;
+		int symbols,journal,literals,placed,pools,ic;
+		ArrayList<Pass1asm.Equ> pending; //shared with the checkpoints before it while it does not change
+	}
+
+	Pass1asm pass1;
+	ArrayList<String> lines=new ArrayList<>();
+	int hashes[]=new int[0];
+	ArrayList<Checkpoint> checkpoints=new ArrayList<>();
+	int endLine=-1;   //line holding END, -1 if not reached
+	int placed=0;     //literals below this index have an address
+	int address[]=new int[64];
+	int next[]=new int[64];
+	int symFirst[]=new int[64],litFirst[]=new int[64];
+	int patched=0;    //words re-patched by the last run (for reporting)
+
+	public IncrementalAssembler()
+	{
+		pass1=new Pass1asm();
+		pass1.SYMTAB.startJournal();
+	}
+
+	public static void main(String[] args) {
+		String src=args.length>0?args[0]:"input.txt";
+		String dst=args.length>1?args[1]:"PASS2.txt";
+		IncrementalAssembler asm=update(new IncrementalAssembler(),src,dst,false);
+		System.out.println("Watching "+src+", press Enter to re-assemble, Ctrl-D to stop");
+		Scanner in=new Scanner(System.in);
+		while(in.hasNextLine())
+		{
+			in.nextLine();
+			asm=update(asm,src,dst,true);
+		}
+	}
+
+	/*
+	 * One run over the current source. An error is reported and the session goes on;
+	 * the failed run left Pass-I part way through the source, so the next one starts over.
+	 */
+	static IncrementalAssembler update(IncrementalAssembler asm,String src,String dst,boolean report)
+	{
+		try
+		{
+			long start=System.nanoTime();
+			int from=asm.assemble(Files.readAllLines(Path.of(src)));
+			asm.write(dst);
+			if(report)
+				System.out.println((from<0?"No change":"Re-assembled from line "+(from+1)+", "+asm.patched+" earlier words re-patched")
+						+" in "+(System.nanoTime()-start)/1000+" us");
+			return asm;
+		}
+		catch (Exception e) {
+			System.out.println("Error: "+e);
+			return new IncrementalAssembler();
+		}
+	}
+
+	/*
+	 * Brings the cached result up to date with source.
+	 * Returns the first re-assembled line (0-based), or -1 if nothing changed.
+	 */
+	public int assemble(List<String> source) throws Exception
+	{
+		int k=0;
+		int common=Math.min(source.size(),lines.size());
+		while(k<common && hashes[k]==source.get(k).hashCode() && lines.get(k).equals(source.get(k)))
+			k++;
+		if(k==source.size() && k==lines.size())
+			return -1;
+		updateLines(source,k);
+		if(endLine>=0 && k>endLine) //only lines after END changed
+			return -1;
+
+		int oldSymbols[]=Arrays.copyOf(pass1.SYMTAB.addresses,pass1.SYMTAB.size());
+		int oldLiterals[]=new int[pass1.LITTAB.size()];
+		for(int j=0;j<oldLiterals.length;j++)
+			oldLiterals[j]=pass1.LITTAB.get(j).getAddess();
+
+		rollback(k);
+		int cut=pass1.IC.size();
+		endLine=-1;
+		for(int i=k;i<source.size();i++)
+		{
+			checkpoints.add(checkpoint());
+			int before=pass1.IC.size();
+			boolean more=pass1.processLine(source.get(i));
+			for(int j=before;j<pass1.IC.size();j++)
+				link(j);
+			while(placed<pass1.LITTAB.size() && pass1.LITTAB.get(placed).getAddess()>=0)
+				placed++;
+			if(!more)
+			{
+				endLine=i;
+				break;
+			}
+		}
+
+		//new records get their address directly
+		if(address.length<pass1.IC.size())
+			address=Arrays.copyOf(address,Math.max(address.length*2,pass1.IC.size()));
+		for(int j=cut;j<pass1.IC.size();j++)
+			address[j]=resolve(j);
+
+		//older records only where the symbol or literal moved
+		patched=0;
+		symFirst=OnePassAssembler.grow(symFirst,pass1.SYMTAB.size());
+		litFirst=OnePassAssembler.grow(litFirst,pass1.LITTAB.size());
+		for(int s=1;s<=Math.min(oldSymbols.length,pass1.SYMTAB.size());s++)
+			if(oldSymbols[s-1]!=pass1.SYMTAB.address(s))
+				repatch(symFirst[s],cut,pass1.SYMTAB.address(s));
+		for(int l=0;l<Math.min(oldLiterals.length,pass1.LITTAB.size());l++)
+			if(oldLiterals[l]!=pass1.LITTAB.get(l).getAddess())
+				repatch(litFirst[l],cut,pass1.LITTAB.get(l).getAddess());
+		unresolved();
+		return k;
+	}
+
+	//Refuses a result that would write -01 for a symbol or literal that has no address
+	void unresolved()
+	{
+		if(endLine<0)
+			throw new IllegalStateException("Missing END");
+		StringBuilder undefined=new StringBuilder();
+		int count=0;
+		for(int s=1;s<=pass1.SYMTAB.size();s++)
+			if(pass1.SYMTAB.address(s)<0 && symFirst[s]!=0)
+				undefined.append(count++>0?", ":"").append(pass1.SYMTAB.name(s));
+		if(count>0)
+			throw new IllegalStateException("Undefined symbol"+(count>1?"s ":" ")+undefined);
+		for(int l=0;l<pass1.LITTAB.size();l++)
+			if(pass1.LITTAB.get(l).getAddess()<0)
+				throw new IllegalStateException("Literal ='"+pass1.LITTAB.get(l).getSymbol()+"' is never placed");
+	}
+
+	void updateLines(List<String> source,int k)
+	{
+		while(lines.size()>k)
+			lines.remove(lines.size()-1);
+		if(hashes.length<source.size())
+			hashes=Arrays.copyOf(hashes,source.size());
+		for(int i=k;i<source.size();i++)
+		{
+			lines.add(source.get(i));
+			hashes[i]=source.get(i).hashCode();
+		}
+	}
+
+	Checkpoint checkpoint()
+	{
+		Checkpoint c=new Checkpoint();
+		c.lc=pass1.lc;
+		c.newptr=pass1.newptr;
+		c.pre=pass1.pre;
+		c.pooltab_ptr=pass1.pooltab_ptr;
+		c.symbols=pass1.SYMTAB.size();
+		c.journal=pass1.SYMTAB.journalSize();
+		c.literals=pass1.LITTAB.size();
+		c.placed=placed;
+		c.pools=pass1.POOLTAB.size();
+		c.ic=pass1.IC.size();
+		c.pending=pass1.pendingCopy();
+		return c;
+	}
+
+	//Restores Pass-I to the state it had right before line k
+	void rollback(int k)
+	{
+		if(k>=checkpoints.size())
+			return;
+		Checkpoint c=checkpoints.get(k);
+		pass1.lc=c.lc;
+		pass1.newptr=c.newptr;
+		pass1.pre=c.pre;
+		pass1.pooltab_ptr=c.pooltab_ptr;
+		pass1.SYMTAB.rollback(c.journal,c.symbols);
+		while(pass1.LITTAB.size()>c.literals)
+			pass1.LITTAB.remove(pass1.LITTAB.size()-1);
+		pass1.libtab_ptr=pass1.litIndex=c.literals;
+		for(int j=c.placed;j<pass1.LITTAB.size();j++)
+			pass1.LITTAB.get(j).setAddess(-1);
+		placed=c.placed;
+		pass1.resetPool(c.placed);
+		while(pass1.POOLTAB.size()>c.pools)
+			pass1.POOLTAB.remove(pass1.POOLTAB.size()-1);
+		pass1.IC.truncate(c.ic);
+		pass1.restorePending(c.pending);
+		pass1.clearExpressions();
+		//drop the records past the cut from the reference chains, they are newest-first
+		for(int s=1;s<symFirst.length;s++)
+			while(symFirst[s]>c.ic)
+				symFirst[s]=next[symFirst[s]-1];
+		for(int l=0;l<litFirst.length;l++)
+			while(litFirst[l]>c.ic)
+				litFirst[l]=next[litFirst[l]-1];
+		while(checkpoints.size()>k)
+			checkpoints.remove(checkpoints.size()-1);
+	}
+
+	//Adds IC record j to the chain of the symbol or literal it refers to
+	void link(int j)
+	{
+		if(next.length<=j)
+			next=Arrays.copyOf(next,Math.max(next.length*2,j+1));
+		next[j]=0;
+		if(pass1.IC.cls(j)!=OPtable.CLASS_IS)
+			return;
+		int value=pass1.IC.value(j);
+		if(pass1.IC.kind(j)==IntermediateCode.S)
+		{
+			symFirst=OnePassAssembler.grow(symFirst,value);
+			next[j]=symFirst[value];
+			symFirst[value]=j+1;
+		}
+		else if(pass1.IC.kind(j)==IntermediateCode.L)
+		{
+			litFirst=OnePassAssembler.grow(litFirst,value);
+			next[j]=litFirst[value];
+			litFirst[value]=j+1;
+		}
+	}
+
+	int resolve(int j)
+	{
+		if(pass1.IC.cls(j)!=OPtable.CLASS_IS)
+			return 0;
+		if(pass1.IC.kind(j)==IntermediateCode.S)
+			return pass1.SYMTAB.address(pass1.IC.value(j));
+		if(pass1.IC.kind(j)==IntermediateCode.L)
+			return pass1.LITTAB.get(pass1.IC.value(j)).getAddess();
+		return 0;
+	}
+
+	void repatch(int link,int cut,int addr)
+	{
+		while(link!=0)
+		{
+			if(link-1<cut)
+			{
+				address[link-1]=addr;
+				patched++;
+			}
+			link=next[link-1];
+		}
+	}
+
+	public void write(String file) throws IOException
+	{
+		BufferedWriter bw=new BufferedWriter(new FileWriter(file));
+		Pass2asm.write(pass1.IC,address,new TextObjectWriter(bw));
+		bw.close();
+	}
+}
@@ -0,0 +1,75 @@
+import java.util.*;
+
+/*
+ * int -> int hash map with open addressing, no boxing.
+ * Used by Pass1asm to find a literal already in the current pool by its value.
+ */
+public class IntMap {
+
+	int keys[],values[];
+	boolean used[];
+	int count;
+
+	public IntMap()
+	{
+		keys=new int[16];
+		values=new int[16];
+		used=new boolean[16];
+	}
+
+	//value stored for key, or missing if there is none
+	public int get(int key,int missing)
+	{
+		int mask=keys.length-1;
+		for(int s=hash(key)&mask;used[s];s=(s+1)&mask)
+			if(keys[s]==key)
+				return values[s];
+		return missing;
+	}
+
+	public void put(int key,int value)
+	{
+		if((count+1)*2>keys.length)
+			resize(keys.length*2);
+		int mask=keys.length-1;
+		int s=hash(key)&mask;
+		while(used[s] && keys[s]!=key)
+			s=(s+1)&mask;
+		if(!used[s])
+			count++;
+		used[s]=true;
+		keys[s]=key;
+		values[s]=value;
+	}
+
+	public void clear()
+	{
+		if(count==0)
+			return;
+		Arrays.fill(used,false);
+		count=0;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	void resize(int size)
+	{
+		int oldKeys[]=keys,oldValues[]=values;
+		boolean oldUsed[]=used;
+		keys=new int[size];
+		values=new int[size];
+		used=new boolean[size];
+		count=0;
+		for(int i=0;i<oldKeys.length;i++)
+			if(oldUsed[i])
+				put(oldKeys[i],oldValues[i]);
+	}
+
+	static int hash(int key)
+	{
+		int h=key*0x9E3779B9;
+		return h^(h>>>16);
+	}
+}
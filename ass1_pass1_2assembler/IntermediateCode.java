@@ -0,0 +1,195 @@
+import java.util.*;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/*
+ * Typed intermediate code produced by Pass1asm and consumed by Pass2asm.
+ * Each IC line is packed into one long:
+ *
+ *   bits 63..56  statement class (AD/IS/DL)
+ *   bits 55..48  opcode
+ *   bits 47..44  register kind (RG/CC, 0 if none)
+ *   bits 43..36  register / condition code
+ *   bits 35..32  operand kind (C/S/L, 0 if none)
+ *   bits 31..0   operand value (constant, symbol index or literal index)
+ *
+ * The "(IS,01)\t(RG,01)\t(L,0)" text form is only used for IC.txt; IC.bin
+ * holds the packed words as they are.
+ */
+public class IntermediateCode {
+
+	//operand kinds
+	static final int NONE=0,C=1,S=2,L=3;
+
+	//"ICB1", first word of a binary IC file
+	static final int MAGIC=0x49434231;
+
+	long codes[];
+	int count;
+	int cleared; //records dropped by clear() so far, record i is number cleared+i overall
+
+	public IntermediateCode()
+	{
+		codes=new long[64];
+		count=0;
+	}
+
+	public static long pack(int cls,int opcode,int regKind,int reg,int kind,int value)
+	{
+		return ((long)cls<<56) | ((long)(opcode&0xFF)<<48) | ((long)regKind<<44)
+				| ((long)(reg&0xFF)<<36) | ((long)kind<<32) | (value&0xFFFFFFFFL);
+	}
+	static int clsOf(long r) {
+		return (int)(r>>>56);
+	}
+	static int opcodeOf(long r) {
+		return (int)(r>>>48)&0xFF;
+	}
+	static int regKindOf(long r) {
+		return (int)(r>>>44)&0xF;
+	}
+	static int regOf(long r) {
+		return (int)(r>>>36)&0xFF;
+	}
+	static int kindOf(long r) {
+		return (int)(r>>>32)&0xF;
+	}
+	static int valueOf(long r) {
+		return (int)r;
+	}
+
+	public void add(int cls,int opcode,int regKind,int reg,int kind,int value)
+	{
+		add(pack(cls,opcode,regKind,reg,kind,value));
+	}
+	public void add(long r)
+	{
+		if(count==codes.length)
+			codes=Arrays.copyOf(codes,count*2);
+		codes[count++]=r;
+	}
+
+	public void clear() {
+		cleared+=count;
+		count=0;
+	}
+	//Drops every record from index n on
+	public void truncate(int n) {
+		count=Math.min(count,n);
+	}
+	public int size() {
+		return count;
+	}
+	public long get(int i) {
+		return codes[i];
+	}
+	public void set(int i,long r) {
+		codes[i]=r;
+	}
+	public int cls(int i) {
+		return clsOf(codes[i]);
+	}
+	public int opcode(int i) {
+		return opcodeOf(codes[i]);
+	}
+	public int regKind(int i) {
+		return regKindOf(codes[i]);
+	}
+	public int reg(int i) {
+		return regOf(codes[i]);
+	}
+	public int kind(int i) {
+		return kindOf(codes[i]);
+	}
+	public int value(int i) {
+		return valueOf(codes[i]);
+	}
+
+	//Same layout Pass1asm used to write into IC.txt
+	public String toString(int i)
+	{
+		String code="("+OPtable.CLASS_NAMES[cls(i)]+",0"+opcode(i)+")";
+		if(cls(i)==OPtable.CLASS_IS)
+		{
+			code+="\t";
+			if(regKind(i)!=NONE)
+				code+="("+OPtable.CLASS_NAMES[regKind(i)]+",0"+reg(i)+")\t";
+			if(kind(i)==S)
+				code+="(S,0"+value(i)+")";
+			else if(kind(i)==L)
+				code+="(L,"+value(i)+")";
+		}
+		else if(kind(i)==C)
+			code+="\t(C,"+value(i)+")";
+		return code;
+	}
+
+	public void write(BufferedWriter bw) throws IOException
+	{
+		for(int i=0;i<size();i++)
+			bw.write(toString(i)+"\n");
+	}
+
+	//Parses the text form back, e.g. when Pass2asm is run on its own from IC.txt
+	public static IntermediateCode read(BufferedReader br) throws IOException
+	{
+		IntermediateCode ic=new IntermediateCode();
+		String line;
+		while((line=br.readLine())!=null)
+		{
+			int cls=0,opcode=0,regKind=NONE,reg=0,kind=NONE,value=0;
+			int open=line.indexOf('(');
+			while(open>=0)
+			{
+				int comma=line.indexOf(',',open);
+				int close=line.indexOf(')',comma);
+				String tag=line.substring(open+1,comma).trim();
+				int num=Integer.parseInt(line.substring(comma+1,close).trim());
+				int type=OPtable.classOf(tag);
+				if(type==OPtable.CLASS_AD || type==OPtable.CLASS_IS || type==OPtable.CLASS_DL)
+				{
+					cls=type;
+					opcode=num;
+				}
+				else if(type==OPtable.CLASS_RG || type==OPtable.CLASS_CC)
+				{
+					regKind=type;
+					reg=num;
+				}
+				else
+				{
+					kind=tag.equals("C")?C:tag.equals("S")?S:L;
+					value=num;
+				}
+				open=line.indexOf('(',close);
+			}
+			if(cls!=0)
+				ic.add(cls,opcode,regKind,reg,kind,value);
+		}
+		return ic;
+	}
+
+	public void writeBinary(DataOutputStream out) throws IOException
+	{
+		out.writeInt(MAGIC);
+		out.writeInt(count);
+		for(int i=0;i<count;i++)
+			out.writeLong(codes[i]);
+	}
+
+	public static IntermediateCode readBinary(DataInputStream in) throws IOException
+	{
+		if(in.readInt()!=MAGIC)
+			throw new IOException("Not a binary IC file");
+		int n=in.readInt();
+		IntermediateCode ic=new IntermediateCode();
+		ic.codes=new long[Math.max(n,1)];
+		for(int i=0;i<n;i++)
+			ic.codes[i]=in.readLong();
+		ic.count=n;
+		return ic;
+	}
+}
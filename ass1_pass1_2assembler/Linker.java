@@ -0,0 +1,181 @@
+import java.util.*;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/*
+ * Links relocatable modules (RelocatableObjectWriter) into one OBJ1 object
+ * file that Simulator can load.
+ *
+ * Modules are laid out one after the other from the base address in the
+ * order given; the first module's START is the entry point. While the modules
+ * are read, every ENTRY symbol goes into one global SymbolTable with its final
+ * address, so link() needs a single linear pass over the words: relocated
+ * words get their module's base added, external references the address of
+ * the symbol from the global table. All undefined externals are reported
+ * together.
+ *
+ * Usage: java Linker <output> <module>.. [-base=n]
+ *   the base defaults to the START address of the first module
+ */
+public class Linker {
+
+	static class Module
+	{
+		String file;
+		int start,base,size;
+		int words[];
+		int relocations[];
+		String externals[];
+		int references[]; //(offset, external) pairs
+	}
+
+	ArrayList<Module> modules=new ArrayList<>();
+	SymbolTable globals=new SymbolTable();
+	ArrayList<String> definedIn=new ArrayList<>(); //module of each global, for duplicate errors
+	int base=-1;
+	int next;
+
+	public static void main(String[] args) {
+		Linker linker=new Linker();
+		String out=null;
+		try
+		{
+			for(String arg : args)
+			{
+				if(arg.startsWith("-base="))
+					linker.base=linker.next=Integer.parseInt(arg.substring(6));
+				else if(out==null)
+					out=arg;
+			}
+			if(out==null)
+			{
+				System.out.println("Usage: java Linker <output> <module>.. [-base=n]");
+				return;
+			}
+			boolean first=true;
+			for(String arg : args)
+			{
+				if(arg.startsWith("-"))
+					continue;
+				if(first)
+					first=false;
+				else
+					linker.add(arg);
+			}
+			linker.write(out,linker.link());
+			System.out.println("Linked "+linker.modules.size()+" modules, "+linker.globals.size()+" symbols, "
+					+(linker.next-linker.base)+" words at "+linker.base);
+		}
+		catch (Exception e) {
+			System.out.println("Error: "+e);
+		}
+	}
+
+	//Reads a module, places it after the previous one and enters its exports
+	public void add(String file) throws IOException
+	{
+		Module m=new Module();
+		m.file=file;
+		DataInputStream in=new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try
+		{
+			if(in.readInt()!=RelocatableObjectWriter.MAGIC)
+				throw new IOException(file+" is not a REL1 object module");
+			m.start=in.readInt();
+			m.size=in.readInt();
+			m.words=new int[m.size];
+			for(int i=0;i<m.size;i++)
+				m.words[i]=in.readInt();
+			m.relocations=new int[in.readInt()];
+			for(int i=0;i<m.relocations.length;i++)
+				m.relocations[i]=in.readInt();
+			if(base<0)
+				base=next=m.start;
+			m.base=next;
+			next+=m.size;
+			int exports=in.readInt();
+			for(int i=0;i<exports;i++)
+			{
+				String name=in.readUTF();
+				int address=m.base+in.readInt();
+				int index=globals.find(name);
+				if(index!=0)
+					throw new IllegalStateException("Symbol "+name+" defined in "+definedIn.get(index-1)+" and "+file);
+				globals.define(name,address);
+				definedIn.add(file);
+			}
+			m.externals=new String[in.readInt()];
+			for(int i=0;i<m.externals.length;i++)
+				m.externals[i]=in.readUTF();
+			m.references=new int[in.readInt()*2];
+			for(int i=0;i<m.references.length;i++)
+				m.references[i]=in.readInt();
+		}
+		finally
+		{
+			in.close();
+		}
+		modules.add(m);
+	}
+
+	//Memory image from base to the end of the last module
+	public int[] link()
+	{
+		if(modules.isEmpty())
+			throw new IllegalStateException("No modules to link");
+		int image[]=new int[next-base];
+		StringBuilder undefined=new StringBuilder();
+		for(Module m : modules)
+		{
+			int at=m.base-base;
+			System.arraycopy(m.words,0,image,at,m.size);
+			for(int off : m.relocations)
+				image[at+off]=address(image[at+off],(image[at+off]&0xFFFF)+m.base);
+			int resolved[]=new int[m.externals.length];
+			for(int i=0;i<m.externals.length;i++)
+			{
+				int index=globals.find(m.externals[i]);
+				resolved[i]=index==0?-1:globals.address(index);
+				if(index==0)
+					undefined.append(undefined.length()>0?", ":"").append(m.externals[i]).append(" (").append(m.file).append(')');
+			}
+			for(int i=0;i<m.references.length;i+=2)
+				if(resolved[m.references[i+1]]>=0)
+					image[at+m.references[i]]=address(image[at+m.references[i]],resolved[m.references[i+1]]);
+		}
+		if(undefined.length()>0)
+			throw new IllegalStateException("Undefined symbols: "+undefined);
+		return image;
+	}
+
+	static int address(int word,int address)
+	{
+		if(address<0 || address>0xFFFF)
+			throw new IllegalStateException("Address "+address+" does not fit the 16-bit field");
+		return (word&~0xFFFF)|address;
+	}
+
+	//OBJ1 file, runs of equal words become one record
+	public void write(String file,int image[]) throws IOException
+	{
+		DataOutputStream out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		out.writeInt(MappedObjectWriter.MAGIC);
+		out.writeInt(Math.max(base,0)); //entry: START of the first module
+		for(int i=0;i<image.length;)
+		{
+			int j=i+1;
+			while(j<image.length && image[j]==image[i])
+				j++;
+			out.writeInt(base+i);
+			out.writeInt(j-i);
+			out.writeInt(image[i]);
+			i=j;
+		}
+		out.close();
+	}
+}
@@ -0,0 +1,161 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * Writes Pass-II output straight into a memory-mapped file, one window of
+ * WINDOW bytes at a time; the file is cut to the bytes actually written on close().
+ * After an error discard() removes the file instead, so no half-written,
+ * zero-padded window is left behind.
+ *
+ * FIXED  : 10-byte text records "oo\trr\taaa\n", one per DL/IS word (AD records
+ *          have no code and are skipped, a missing register is "00")
+ * BINARY : object file, big-endian ints
+ *            header  "OBJ1", start address
+ *            record  location, count, word   (count words of value word)
+ *          An instruction word is opcode<<24 | reg<<16 | address (an address
+ *          over 0xFFFF is an error), a DC word is the constant itself and DS
+ *          is one record of size zero words.
+ */
+public class MappedObjectWriter implements ObjectWriter {
+
+	static final int FIXED=1,BINARY=2;
+	static final int MAGIC=0x4F424A31; //"OBJ1"
+	static final int WINDOW=1<<20;
+
+	Path path;
+	FileChannel ch;
+	MappedByteBuffer map;
+	long base=0; //file offset of map
+	int format;
+	int start=-1;
+
+	public MappedObjectWriter(String file,int format) throws IOException
+	{
+		this.format=format;
+		path=Path.of(file);
+		ch=FileChannel.open(path,StandardOpenOption.CREATE,StandardOpenOption.READ,
+				StandardOpenOption.WRITE,StandardOpenOption.TRUNCATE_EXISTING);
+		map=ch.map(FileChannel.MapMode.READ_WRITE,0,WINDOW);
+		if(format==BINARY)
+		{
+			map.putInt(MAGIC);
+			map.putInt(0); //start address, filled in by close()
+		}
+	}
+
+	void ensure(int bytes) throws IOException
+	{
+		if(map.remaining()>=bytes)
+			return;
+		base+=map.position();
+		map=ch.map(FileChannel.MapMode.READ_WRITE,base,WINDOW);
+	}
+
+	public void word(int lc,long r,int address) throws IOException
+	{
+		boolean dl=IntermediateCode.clsOf(r)==OPtable.CLASS_DL;
+		if(format==BINARY)
+		{
+			ensure(12);
+			map.putInt(lc);
+			if(dl && IntermediateCode.opcodeOf(r)==1) //DS
+			{
+				map.putInt(IntermediateCode.valueOf(r));
+				map.putInt(0);
+			}
+			else
+			{
+				map.putInt(1);
+				map.putInt(dl?IntermediateCode.valueOf(r):pack(lc,r,address));
+			}
+			return;
+		}
+		ensure(10);
+		if(dl)
+			record(lc,0,0,IntermediateCode.valueOf(r),"Constant");
+		else
+			record(lc,IntermediateCode.opcodeOf(r),IntermediateCode.regOf(r),address,"Address");
+	}
+
+	//Instruction word for r at lc; an address that needs more than 16 bits is an error, not cut off
+	static int pack(int lc,long r,int address)
+	{
+		if(address<0 || address>0xFFFF)
+			throw new IllegalStateException("Address "+address+" at "+lc+" does not fit the 16-bit field");
+		return (IntermediateCode.opcodeOf(r)<<24)|(IntermediateCode.regOf(r)<<16)|address;
+	}
+
+	public void directive(long r) throws IOException
+	{
+		if(start<0 && IntermediateCode.opcodeOf(r)==1) //START
+			start=IntermediateCode.valueOf(r);
+	}
+
+	public void stop(int lc) throws IOException
+	{
+		if(format==BINARY)
+		{
+			ensure(12);
+			map.putInt(lc);
+			map.putInt(1);
+			map.putInt(0);
+		}
+		else
+		{
+			ensure(10);
+			record(lc,0,0,0,"Address");
+		}
+	}
+
+	//field names the value in the last 3 digits (Address or Constant) for the error message
+	void record(int lc,int opcode,int reg,int address,String field) throws IOException
+	{
+		if(address>999 || address<-99)
+			throw new IOException(field+" "+address+" at "+lc+" does not fit the 3-digit field");
+		put2(opcode);
+		map.put((byte)'\t');
+		put2(reg);
+		map.put((byte)'\t');
+		if(address<0)
+		{
+			map.put((byte)'-');
+			put2(-address);
+		}
+		else
+		{
+			map.put((byte)('0'+address/100));
+			put2(address%100);
+		}
+		map.put((byte)'\n');
+	}
+
+	void put2(int v)
+	{
+		map.put((byte)('0'+(v/10)%10));
+		map.put((byte)('0'+v%10));
+	}
+
+	public void close() throws IOException
+	{
+		long size=base+map.position();
+		if(format==BINARY && base==0)
+			map.putInt(4,Math.max(start,0));
+		else if(format==BINARY)
+			ch.write(ByteBuffer.allocate(4).putInt(0,Math.max(start,0)),4);
+		map.force();
+		ch.truncate(size);
+		ch.close();
+	}
+
+	//Closes the channel and deletes the file, for a run that failed before close()
+	public void discard() throws IOException
+	{
+		ch.close();
+		Files.deleteIfExists(path);
+	}
+}
@@ -1,77 +1,304 @@
-
 import java.util.*;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/*
+ * Mnemonic table for AD, IS, DL, RG and CC.
+ * All mnemonics live in one open table indexed by a perfect hash, so a token
+ * is resolved to its class and opcode with a single probe. Hashing and
+ * comparison fold case per char, the token is never upper-cased.
+ *
+ * A table is immutable once built, so one instance can be shared by any
+ * number of threads. DEFAULT is the built-in instruction set; load() builds
+ * one from a definition file with a line per mnemonic
+ *
+ *   # class mnemonic opcode
+ *   IS  MOVER  1
+ *
+ * Opcodes are what the rest of the assembler acts on: Pass1asm on the AD and
+ * DL ones (START=1 .. LTORG=5, ENTRY=6, EXTRN=7, DS=1, DC=2), PeepholeOptimizer, Simulator and
+ * Pass2asm on the IS ones (STOP=0, MOVER=1 ..), Simulator on RG and CC. So the
+ * numbering is fixed: a built-in mnemonic must keep its class and opcode, a
+ * new mnemonic is an alias of whatever its opcode means (IS LOAD 1 is MOVER),
+ * and AD/DL entries may only use the opcodes Pass1asm knows, each of which
+ * must be present. IS and CC entries may only use the built-in opcodes too
+ * (STOP..READ, EQ..ANY), nothing else can assemble or run them. RG opcodes
+ * must fit the 1-digit register field (0..9).
+ * New Pass1asm instances use current(), which use() switches.
+ */
+public class OPtable implements Serializable {
+
+	private static final long serialVersionUID=1L;
+
+	//class codes shared with IntermediateCode
+	static final int CLASS_AD=1,CLASS_IS=2,CLASS_DL=3,CLASS_RG=4,CLASS_CC=5;
+	static final String CLASS_NAMES[]={"","AD","IS","DL","RG","CC"};
+
+	static final OPtable DEFAULT=new OPtable(
+			new String[]{"START","END","ORIGIN","EQU","LTORG","ENTRY","EXTRN",
+				"STOP","MOVER","MOVEM","ADD","SUB","MULT","DIV","BC","COMP","PRINT","READ",
+				"DS","DC",
+				"AREG","BREG","CREG",
+				"EQ","LT","GT","LE","GE","NE","ANY"},
+			new int[]{CLASS_AD,CLASS_AD,CLASS_AD,CLASS_AD,CLASS_AD,CLASS_AD,CLASS_AD,
+				CLASS_IS,CLASS_IS,CLASS_IS,CLASS_IS,CLASS_IS,CLASS_IS,CLASS_IS,CLASS_IS,CLASS_IS,CLASS_IS,CLASS_IS,
+				CLASS_DL,CLASS_DL,
+				CLASS_RG,CLASS_RG,CLASS_RG,
+				CLASS_CC,CLASS_CC,CLASS_CC,CLASS_CC,CLASS_CC,CLASS_CC,CLASS_CC},
+			new int[]{1,2,3,4,5,6,7,
+				0,1,2,3,4,5,6,7,8,9,10,
+				1,2,
+				1,2,3,
+				1,2,3,4,5,6,7});
+
+	static volatile OPtable current=DEFAULT;
+
+	final String keys[];
+	final int codes[];
+	final int mask;
+	final int mult;
+
+	OPtable(String names[],int classes[],int opcodes[])
+	{
+		//search for a multiplier that puts every mnemonic in its own slot, growing the table if none does
+		for(int size=Integer.highestOneBit(Math.max(names.length,4)*4);;size*=2)
+		{
+			String k[]=new String[size];
+			int c[]=new int[size];
+			for(int m=31;m<31+2*4096;m+=2)
+			{
+				Arrays.fill(k,null);
+				boolean perfect=true;
+				for(int i=0;i<names.length && perfect;i++)
+				{
+					int slot=slot(names[i],0,names[i].length(),m,size-1);
+					if(k[slot]!=null)
+					{
+						if(k[slot].equalsIgnoreCase(names[i]))
+							throw new IllegalArgumentException("Duplicate mnemonic "+names[i]);
+						perfect=false;
+					}
+					k[slot]=fold(names[i]);
+					c[slot]=(classes[i]<<8)|opcodes[i];
+				}
+				if(perfect)
+				{
+					keys=k;
+					codes=c;
+					mask=size-1;
+					mult=m;
+					return;
+				}
+			}
+		}
+	}
+
+	/*
+	 * Table of a definition file; with cache, a snapshot next to it (<file>.ser) is used while it
+	 * is newer than the file and passes the same checks, otherwise the file is read again.
+	 */
+	public static OPtable load(String file,boolean cache) throws IOException
+	{
+		File def=new File(file),snapshot=new File(file+".ser");
+		if(cache && snapshot.lastModified()>def.lastModified())
+		{
+			ObjectInputStream in=new ObjectInputStream(new FileInputStream(snapshot));
+			try
+			{
+				OPtable table=(OPtable)in.readObject();
+				if(table.valid())
+					return table;
+			}
+			catch (ClassNotFoundException e) {
+				throw new IOException("Bad snapshot "+snapshot+": "+e);
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		ArrayList<String> names=new ArrayList<>();
+		int classes[]=new int[16],opcodes[]=new int[16];
+		BitSet present=new BitSet();
+		BufferedReader br=new BufferedReader(new FileReader(def));
+		try
+		{
+			String line;
+			int n=0;
+			while((line=br.readLine())!=null)
+			{
+				n++;
+				line=line.trim();
+				if(line.isEmpty() || line.startsWith("#"))
+					continue;
+				String parts[]=line.split("\\s+");
+				int cls=parts.length==3?classOf(parts[0].toUpperCase(Locale.ROOT)):0;
+				if(cls==0 || !parts[2].matches("\\d{1,3}"))
+					throw new IOException(file+":"+n+": expected <class> <mnemonic> <opcode>");
+				int opcode=Integer.parseInt(parts[2]);
+				String error=check(parts[1],cls,opcode);
+				if(error!=null)
+					throw new IOException(file+":"+n+": "+error);
+				if(names.size()==classes.length)
+				{
+					classes=Arrays.copyOf(classes,names.size()*2);
+					opcodes=Arrays.copyOf(opcodes,names.size()*2);
+				}
+				classes[names.size()]=cls;
+				opcodes[names.size()]=opcode;
+				names.add(parts[1]);
+				present.set((cls<<8)|opcode);
+			}
+		}
+		finally
+		{
+			br.close();
+		}
+		//every directive and declaration Pass1asm handles needs a mnemonic
+		for(int code : DEFAULT.codes)
+			if((code>>8==CLASS_AD || code>>8==CLASS_DL) && !present.get(code))
+				throw new IOException(file+": no "+CLASS_NAMES[code>>8]+" entry with opcode "+(code&0xFF)+" ("+DEFAULT.nameOf(code)+")");
+		OPtable table=new OPtable(names.toArray(new String[0]),classes,opcodes);
+		if(cache)
+		{
+			ObjectOutputStream out=new ObjectOutputStream(new FileOutputStream(snapshot));
+			out.writeObject(table);
+			out.close();
+		}
+		return table;
+	}
+
+	//Why name cannot be <cls> <opcode> in a definition file, or null if it can
+	static String check(String name,int cls,int opcode)
+	{
+		int code=(cls<<8)|opcode;
+		int builtin=DEFAULT.find(name,0,name.length());
+		if(builtin>=0 && builtin!=code)
+			return name+" is "+CLASS_NAMES[builtin>>8]+" "+(builtin&0xFF)+" in every instruction set";
+		int max=cls==CLASS_IS?99:9;
+		if(opcode>max)
+			return CLASS_NAMES[cls]+" opcode "+opcode+" of "+name+" is outside 0.."+max;
+		if((cls==CLASS_AD || cls==CLASS_DL) && DEFAULT.nameOf(code)==null)
+			return "Pass1asm has no "+CLASS_NAMES[cls]+" with opcode "+opcode+" for "+name;
+		//operand rules, PeepholeOptimizer and Simulator only know the built-in instructions and conditions
+		if((cls==CLASS_IS || cls==CLASS_CC) && DEFAULT.nameOf(code)==null)
+			return "No "+CLASS_NAMES[cls]+" with opcode "+opcode+" is implemented, "+name+" must alias a built-in one";
+		return null;
+	}
+
+	//Same checks as load() makes on a definition file, and every key can be found again
+	boolean valid()
+	{
+		BitSet present=new BitSet();
+		for(int i=0;i<keys.length;i++)
+		{
+			if(keys[i]==null)
+				continue;
+			if(find(keys[i],0,keys[i].length())!=codes[i] || check(keys[i],codes[i]>>8,codes[i]&0xFF)!=null)
+				return false;
+			present.set(codes[i]);
+		}
+		for(int code : DEFAULT.codes)
+			if((code>>8==CLASS_AD || code>>8==CLASS_DL) && !present.get(code))
+				return false;
+		return true;
+	}
+
+	//Mnemonic with the given (class<<8)|opcode, null if there is none
+	String nameOf(int code)
+	{
+		for(int i=0;i<keys.length;i++)
+			if(keys[i]!=null && codes[i]==code)
+				return keys[i];
+		return null;
+	}
+
+	//Table new Pass1asm instances start with
+	public static OPtable current() {
+		return current;
+	}
+	public static void use(OPtable table) {
+		current=table;
+	}
+
+	static char fold(char c)
+	{
+		return (c>='a' && c<='z')?(char)(c-32):c;
+	}
+
+	//Key of a mnemonic, folded like the lookups (never by the default locale)
+	static String fold(String s)
+	{
+		char k[]=new char[s.length()];
+		for(int i=0;i<k.length;i++)
+			k[i]=fold(s.charAt(i));
+		return new String(k);
+	}
+
+	static int slot(CharSequence s,int off,int len,int mult,int mask)
+	{
+		int h=len;
+		for(int i=off;i<off+len;i++)
+			h=h*mult+fold(s.charAt(i));
+		return (h^(h>>>16))&mask;
+	}
+
+	/*
+	 * Returns (class<<8)|opcode for s[off,off+len), or -1 if it is not a mnemonic.
+	 */
+	public int find(CharSequence s,int off,int len)
+	{
+		int slot=slot(s,off,len,mult,mask);
+		String key=keys[slot];
+		if(key==null || key.length()!=len)
+			return -1;
+		for(int i=0;i<len;i++)
+			if(key.charAt(i)!=fold(s.charAt(off+i)))
+				return -1;
+		return codes[slot];
+	}
+
+	//Same lookups in the built-in table
+	public static int lookup(CharSequence s,int off,int len)
+	{
+		return DEFAULT.find(s,off,len);
+	}
+
+	public static int lookup(CharSequence s)
+	{
+		return DEFAULT.find(s,0,s.length());
+	}
+
+	static int classOfCode(int code) {
+		return code<0?0:code>>8;
+	}
+	static int opcodeOfCode(int code) {
+		return code<0?-1:code&0xFF;
+	}
 
-public class OPtable {
-
-	HashMap<String, Integer> AD,RG,IS,CC,DL;
-	
-	public OPtable() {
-		AD=new HashMap<>();
-		CC = new HashMap<>();
-		IS = new HashMap<>();
-		RG = new HashMap<>();
-		DL=new HashMap<String, Integer>();
-		DL.put("DS",01);
-		DL.put("DC", 02);
-		IS.put("STOP",00);
-		IS.put("ADD",03);
-		IS.put("SUB",04);
-		IS.put("MULT",05);
-		IS.put("MOVER",01);
-		IS.put("MOVEM",02);
-		IS.put("COMP",8);
-		IS.put("BC",07);
-		IS.put("DIV",06);
-		IS.put("READ",10);
-		IS.put("PRINT",9);
-		AD.put("START",01);
-		AD.put("END",02);
-		AD.put("ORIGIN",03);
-		AD.put("EQU",04);
-		AD.put("LTORG",05);
-		RG.put("AREG",01);
-		RG.put("BREG",02);
-		RG.put("CREG",03);
-		CC.put("EQ", 01);
-		CC.put("LT", 02);
-		CC.put("GT", 03);
-		CC.put("LE", 04);
-		CC.put("GE", 05);
-		CC.put("NE", 06);
-		CC.put("ANY",07);
-	}
-	
 	public String getMnemonic(String s)
 	{
-		s=s.toUpperCase();
-		
-		if(AD.containsKey(s))
-			return "AD";
-		else if(IS.containsKey(s))
-			return "IS";
-		else if(DL.containsKey(s))
-			return "DL";
-		else if(RG.containsKey(s))
-			return "RG";
-		else if(CC.containsKey(s))
-			return "CC";
-		return "";
-	}
-	
+		return CLASS_NAMES[classOfCode(find(s,0,s.length()))];
+	}
+
 	public int getOpcode(String s)
 	{
-		s = s.toUpperCase();
-		if(AD.containsKey(s))
-			return AD.get(s);
-		else if(IS.containsKey(s))
-			return IS.get(s);
-		else if(CC.containsKey(s))
-			return CC.get(s);
-		else if(DL.containsKey(s))
-			return DL.get(s);
-		else if(RG.containsKey(s))
-			return RG.get(s);
-		return -1;
+		return opcodeOfCode(find(s,0,s.length()));
+	}
+
+	public static int classOf(String name)
+	{
+		for(int i=1;i<CLASS_NAMES.length;i++)
+			if(CLASS_NAMES[i].equals(name))
+				return i;
+		return 0;
 	}
 
 }
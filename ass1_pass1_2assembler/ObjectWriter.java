@@ -0,0 +1,18 @@
+import java.io.IOException;
+
+/*
+ * Output backend for Pass2asm. lc is the address the record is placed at,
+ * r the IC record and address the resolved operand address (0 if none).
+ * Records after STOP (constants, literal pools) are passed on as well.
+ */
+public interface ObjectWriter {
+
+	void word(int lc,long r,int address) throws IOException;
+
+	//AD record: START/END/ORIGIN/EQU/LTORG, no code of its own
+	void directive(long r) throws IOException;
+
+	void stop(int lc) throws IOException;
+
+	void close() throws IOException;
+}
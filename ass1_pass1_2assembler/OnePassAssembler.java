@@ -0,0 +1,161 @@
+import java.util.*;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+
+/*
+ * One-pass assembler on top of Pass1asm's location counter logic.
+ * Machine words go straight into an in-memory buffer (the IC record plus its
+ * resolved address). A reference to a symbol or literal without an address
+ * yet is threaded onto that symbol's fix-up chain: the word's address slot
+ * holds the previous unresolved word (+1, 0 ends the chain) and symHead/litHead
+ * hold the newest one. When Pass-I assigns the address the chain is walked and
+ * every word on it is patched, no second pass over the program is needed.
+ * A missing END, or a chain still open when the source ends, makes assemble()
+ * throw instead of writing the link as an address.
+ *
+ * Usage: java OnePassAssembler [source] [output]
+ */
+public class OnePassAssembler {
+
+	Pass1asm pass1;
+	IntermediateCode code; //IC record of every emitted word
+	int address[];         //resolved address, or the fix-up link while unresolved
+	int count;
+	int symHead[],litHead[];
+	int litDone=0; //literals below this index already have their address
+
+	public OnePassAssembler()
+	{
+		pass1=new Pass1asm();
+		code=new IntermediateCode();
+		address=new int[256];
+		symHead=new int[64];
+		litHead=new int[64];
+	}
+
+	public static void main(String[] args) {
+		String src=args.length>0?args[0]:"input.txt";
+		String dst=args.length>1?args[1]:"PASS2.txt";
+		try
+		{
+			OnePassAssembler asm=new OnePassAssembler();
+			BufferedReader br=new BufferedReader(new FileReader(src));
+			asm.assemble(br);
+			br.close();
+			BufferedWriter bw=new BufferedWriter(new FileWriter(dst));
+			asm.write(bw);
+			bw.close();
+		}
+		catch (Exception e) {
+			System.out.println("Error: "+e);
+		}
+	}
+
+	public OnePassAssembler assemble(BufferedReader br) throws Exception
+	{
+		String line;
+		boolean more=true;
+		while(more && (line=br.readLine())!=null)
+		{
+			pass1.lines++;
+			more=pass1.processLine(line);
+			for(int i=0;i<pass1.IC.size();i++)
+				emit(pass1.IC.get(i));
+			pass1.IC.clear();
+			for(int k=0;k<pass1.definedCount;k++)
+			{
+				int index=pass1.defined[k];
+				if(index<symHead.length)
+				{
+					resolve(symHead[index],pass1.SYMTAB.address(index));
+					symHead[index]=0;
+				}
+			}
+			//pools are placed in LITTAB order, so only literals from litDone on can be new
+			while(litDone<pass1.LITTAB.size() && pass1.LITTAB.get(litDone).getAddess()>=0)
+			{
+				if(litDone<litHead.length)
+					resolve(litHead[litDone],pass1.LITTAB.get(litDone).getAddess());
+				litDone++;
+			}
+		}
+		if(more)
+			throw new IllegalStateException("Missing END");
+		for(int i=1;i<symHead.length;i++)
+			if(symHead[i]!=0)
+				throw new IllegalStateException("Undefined symbol "+pass1.SYMTAB.name(i));
+		//an open chain would otherwise be written out as a link, not an address
+		for(int l=0;l<litHead.length;l++)
+			if(litHead[l]!=0 && pass1.LITTAB.get(l).getAddess()<0)
+				throw new IllegalStateException("Literal ='"+pass1.LITTAB.get(l).getSymbol()+"' is never placed");
+		return this;
+	}
+
+	//Every record is kept, STOP and what follows it too; the ObjectWriter decides what it writes
+	void emit(long r)
+	{
+		int kind=IntermediateCode.kindOf(r),value=IntermediateCode.valueOf(r);
+		int addr=0;
+		if(IntermediateCode.clsOf(r)==OPtable.CLASS_IS && kind==IntermediateCode.S)
+		{
+			addr=pass1.SYMTAB.address(value);
+			if(addr<0)
+			{
+				symHead=grow(symHead,value);
+				addr=symHead[value];
+				symHead[value]=count+1;
+			}
+		}
+		else if(IntermediateCode.clsOf(r)==OPtable.CLASS_IS && kind==IntermediateCode.L)
+		{
+			addr=pass1.LITTAB.get(value).getAddess();
+			if(addr<0)
+			{
+				litHead=grow(litHead,value);
+				addr=litHead[value];
+				litHead[value]=count+1;
+			}
+		}
+		if(count==address.length)
+			address=Arrays.copyOf(address,count*2);
+		code.add(r);
+		address[count]=addr;
+		count++;
+	}
+
+	//Walks a fix-up chain starting at word link-1 and stores addr in every word on it
+	void resolve(int link,int addr)
+	{
+		while(link!=0)
+		{
+			int next=address[link-1];
+			address[link-1]=addr;
+			link=next;
+		}
+	}
+
+	static int[] grow(int a[],int index)
+	{
+		if(index<a.length)
+			return a;
+		return Arrays.copyOf(a,Math.max(a.length*2,index+1));
+	}
+
+	public int size() {
+		return count;
+	}
+
+	//Same layout as Pass2asm's PASS2.txt
+	public void write(BufferedWriter bw) throws IOException
+	{
+		write(new TextObjectWriter(bw));
+	}
+
+	public void write(ObjectWriter out) throws IOException
+	{
+		Pass2asm.write(code,address,out);
+	}
+}
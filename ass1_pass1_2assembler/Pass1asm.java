@@ -2,298 +2,674 @@ import java.util.*;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.BufferedReader;
-import java.io.BufferedWriter; 
+import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 
 public class Pass1asm {
+	//EQU whose expression still refers to an undefined symbol
+	static class Equ
+	{
+		int symbol; //SYMTAB index of the label
+		Expression expr;
+		int ic;     //number of its IC record, see IntermediateCode.cleared
+		int line,column;
+		Equ next;   //next EQU waiting on the same symbol
+	}
+
 	int lc=0;
 	int newptr=0,pre=0;
 	int libtab_ptr=0,pooltab_ptr=0;
-	int symIndex=0,litIndex=0;
-	LinkedHashMap<String, Tables> SYMTAB;
+	int litIndex=0;
+	int lines=0;
+	int defined[]=new int[4]; //symbols that got an address while processing the last line
+	int definedCount=0;
+	int woken=0;              //defined[] below this index had their waiting EQUs retried
+	SymbolTable SYMTAB;
 	ArrayList<Tables> LITTAB;
+	IntMap pool; //literal value -> LITTAB index, for the pool not placed yet
 	ArrayList<Integer> POOLTAB;
+	IntermediateCode IC;
+	SourceLexer lexer;
+	OPtable optab=OPtable.current();
+	SymbolTable exprKeys; //operand text -> compiled expression, index-1 into exprs
+	ArrayList<Expression> exprs;
+	LinkedHashSet<Equ> pending; //in source order
+	ArrayList<Equ> pendingCopy; //pending as it is now for IncrementalAssembler, null after a change
+	Equ waiting[]=new Equ[16];  //SYMTAB index -> pending EQUs waiting for that symbol, linked through next
+	AsmMetrics metrics; //null unless the run is measured
+	Diagnostics diagnostics; //null: the first error ends the run with an exception
+	boolean externals; //relocatable output: EXTRN symbols are left to Linker instead of being errors
+	IntMap entries=new IntMap(),extrns=new IntMap(); //SYMTAB index -> line of its ENTRY/EXTRN declaration
+	IntMap declaredColumn=new IntMap(); //SYMTAB index -> column of that declaration
+	int column; //0-based column an error on the current line is reported at
+	boolean ended; //END has been processed
+	IntMap firstUse=new IntMap(),firstUseColumn=new IntMap(); //forward referenced symbol -> line/column of first use
+	IntMap constants=new IntMap();  //EQU symbol -> 1 if its value is a plain number, 0 if it is built from a location
+	IntMap constantAt=new IntMap(); //IC record number -> 1 for an EQU/ORIGIN whose value is a plain number
 	private BufferedReader br;
 
 	public Pass1asm()
 	{
-		SYMTAB =new LinkedHashMap<>();
+		SYMTAB =new SymbolTable();
 		LITTAB=new ArrayList<>();
+		pool=new IntMap();
 		POOLTAB=new ArrayList<>();
+		IC=new IntermediateCode();
+		lexer=new SourceLexer();
+		exprKeys=new SymbolTable();
+		exprs=new ArrayList<>();
+		pending=new LinkedHashSet<>();
 		lc=0;
 		POOLTAB.add(0);
 	}
+	//java Pass1asm [-report=none|summary|full], full by default
 	public static void main(String[] args) {
 		Pass1asm one=new Pass1asm();
 		try
 		{
-			one.parseFile();
+			one.parseFile(new Report(Report.level(args,Report.FULL)));
 		}
 		catch (Exception e) {
-			System.out.println("Error: "+e); 
+			System.out.println("Error: "+e);
 		}
 	}
 	public void parseFile() throws Exception
 	{
-		String prev="";
-		String line,code;
+		parseFile(new Report(Report.FULL));
+	}
+	public void parseFile(Report report) throws Exception
+	{
 		br = new BufferedReader(new FileReader("input.txt"));
-		BufferedWriter bw=new BufferedWriter(new FileWriter("IC.txt"));
-		OPtable lookup=new OPtable();
-		//bw.write("Intermediate Code\n\n");
-		System.out.println("\nIntermediate Code");
-		while((line=br.readLine())!=null)
+		diagnostics=new Diagnostics("input.txt");
+		assemble(br);
+		br.close();
+		checkDiagnostics();
+		dump();
+		report(report);
+		report.flush(System.out);
+	}
+	//Appends the Pass-I part of the report
+	void report(Report report)
+	{
+		StringBuilder sb=report.text;
+		if(report.full())
 		{
-			
-			String parts[]=line.split("\\s+");
-			if(!parts[0].isEmpty()) //processing of label
+			sb.append("\nIntermediate Code\n");
+			printIC(sb);
+			printSYMTAB(sb);
+			//Printing Literal table
+			PrintLITTAB(sb);
+			printPOOLTAB(sb);
+		}
+		else if(report.summary())
+			sb.append("Pass-I: ").append(lines).append(" lines, ").append(SYMTAB.size()).append(" symbols, ")
+				.append(LITTAB.size()).append(" literals, ").append(POOLTAB.size()).append(" pools, ")
+				.append(IC.size()).append(" IC records\n");
+	}
+	/*
+	 * In-memory Pass-I: fills SYMTAB, LITTAB, POOLTAB and IC without touching
+	 * any file, so Pass2asm.generateCode(Pass1asm, ...) can pick them up directly.
+	 */
+	public IntermediateCode assemble(BufferedReader br) throws Exception
+	{
+		if(metrics!=null)
+			return assembleMeasured(br);
+		while(lexer.readLine(br))
+		{
+			lines++;
+			if(!step())
+				break;
+		}
+		if(!ended)
+			missingEnd();
+		if(libtab_ptr==0)
+			POOLTAB.clear();
+		return IC;
+	}
+	//Same loop with the phase timers of metrics running
+	IntermediateCode assembleMeasured(BufferedReader br) throws Exception
+	{
+		long bytes=AsmMetrics.allocatedBytes();
+		long lookup=metrics.lookupNanos;
+		long lex=0,pass=0;
+		while(true)
+		{
+			long t0=System.nanoTime();
+			if(!lexer.readLine(br))
+				break;
+			long t1=System.nanoTime();
+			lines++;
+			boolean more=step();
+			long t2=System.nanoTime();
+			lex+=t1-t0;
+			pass+=t2-t1;
+			if(!more)
+				break;
+		}
+		if(!ended)
+			missingEnd();
+		if(libtab_ptr==0)
+			POOLTAB.clear();
+		metrics.lexNanos+=lex;
+		metrics.emitNanos+=pass-(metrics.lookupNanos-lookup);
+		metrics.pass1Bytes+=AsmMetrics.allocatedBytes()-bytes;
+		metrics.lines+=lines;
+		metrics.symbols+=SYMTAB.size();
+		metrics.literals+=LITTAB.size();
+		metrics.pools+=POOLTAB.size();
+		return IC;
+	}
+	//Returns false once END has been processed
+	boolean processLine(String line) throws Exception
+	{
+		lexer.set(line);
+		return step();
+	}
+	//process(), but with diagnostics on an error is recorded and the next statement is read
+	boolean step() throws Exception
+	{
+		if(diagnostics==null)
+			return process();
+		try
+		{
+			return process();
+		}
+		catch (RuntimeException e) {
+			diagnostics.error(lines,column+1,e.getMessage()!=null?e.getMessage():e.toString());
+			return true;
+		}
+	}
+	//Throws with every recorded error if there were any
+	public void checkDiagnostics()
+	{
+		if(diagnostics!=null && diagnostics.count()>0)
+			throw new IllegalStateException(diagnostics.toString());
+	}
+	//Start of operand j, which the statement must have; errors on the line are reported there from now on
+	int operand(int j)
+	{
+		if(j>=lexer.count)
+			throw new IllegalArgumentException(mnemonic()+" needs an operand");
+		column=lexer.start[j];
+		return lexer.start[j];
+	}
+	//The statement takes n operands at most; the first one past them is reported
+	void extra(int n)
+	{
+		if(lexer.count<=n)
+			return;
+		column=lexer.start[n];
+		throw new IllegalArgumentException("Extra operand "+lexer.chars.subSequence(column,column+lexer.len[n])+" for "+mnemonic());
+	}
+	//Mnemonic of the current line, only built for an error message
+	String mnemonic()
+	{
+		return lexer.chars.subSequence(lexer.opStart,lexer.opStart+lexer.opLen).toString();
+	}
+	//Processes the line currently held by lexer
+	boolean process() throws Exception
+	{
+		CharSequence text=lexer.chars;
+		definedCount=woken=0;
+		column=lexer.opStart;
+		if(lexer.blank())
+			return true;
+
+		long t=metrics!=null?System.nanoTime():0;
+		int op=optab.find(text,lexer.opStart,lexer.opLen);
+		int cls=OPtable.classOfCode(op),opcode=OPtable.opcodeOfCode(op);
+		if(lexer.labelLen>0)
+			checkLabel(text);
+		if(lexer.labelLen>0 && !(cls==OPtable.CLASS_AD && opcode==4)) //processing of label, EQU sets its own
+			defined(SYMTAB.define(text,lexer.labelStart,lexer.labelLen,lc));
+		if(metrics!=null)
+			metrics.lookupNanos+=System.nanoTime()-t;
+		if(op<0 && lexer.opLen>0)
+			throw new IllegalArgumentException("Unknown mnemonic "+text.subSequence(lexer.opStart,lexer.opStart+lexer.opLen));
+		resolveEqus();
+		if(cls==OPtable.CLASS_AD && (opcode==5 || opcode==2)) //LTORG, END
+		{
+			int x=libtab_ptr-newptr;
+			if(pre!=0 && pre<libtab_ptr ){
+			pooltab_ptr++;
+			POOLTAB.add(x);}
+			pre=libtab_ptr;
+			int ptr=POOLTAB.get(pooltab_ptr);
+			//nothing new since the last pool, do not place it a second time
+			if(newptr==0)
+				ptr=libtab_ptr;
+			for(int j=ptr;j<libtab_ptr;j++)
 			{
-				if(SYMTAB.containsKey(parts[0]))
-					SYMTAB.put(parts[0], new Tables(parts[0], lc, SYMTAB.get(parts[0]).getIndex()));
-				else
-					SYMTAB.put(parts[0],new Tables(parts[0], lc, ++symIndex));
+				LITTAB.get(j).setAddess(lc);
+				IC.add(OPtable.CLASS_DL,2,IntermediateCode.NONE,0,IntermediateCode.C,Integer.parseInt(LITTAB.get(j).symbol));
+				lc++;
 			}
+			newptr=0;
+			pool.clear();
 
-			if(parts[1].equals("LTORG") || parts[1].equals("END"))
+			if(opcode==2)
 			{
-				int x=libtab_ptr-newptr;
-				if(pre!=0 && pre<libtab_ptr ){
-				pooltab_ptr++;
-				POOLTAB.add(x);}
-				pre=libtab_ptr;
-				int ptr=POOLTAB.get(pooltab_ptr);
-				for(int j=ptr;j<libtab_ptr;j++)
-				{
-					LITTAB.set(j, new Tables(LITTAB.get(j).getSymbol(),lc));
-					code="(DL,02)\t(C,"+LITTAB.get(j).symbol+")";
-					bw.write(code+"\n");
-					lc++;
-				}
-				newptr=0;
+				ended=true;
+				undefinedSymbols();
+				IC.add(OPtable.CLASS_AD,2,IntermediateCode.NONE,0,IntermediateCode.NONE,0);
+				return false;
+			}
 
-				if(parts[1].equals("END"))
-				{
-					code="(AD,02)";
-					bw.write(code+"\n");
-					break;
-				}
+		}
+		if(cls==OPtable.CLASS_AD && opcode==1) //START
+		{
+			extra(1);
+			lc=expr(text,operand(0),lexer.len[0]);
+			IC.add(OPtable.CLASS_AD,1,IntermediateCode.NONE,0,IntermediateCode.C,lc);
+		}
 
-			}
-			if(parts[1].equals("START"))
+		if(cls==OPtable.CLASS_AD && opcode==3) //ORIGIN
+		{
+			extra(1);
+			lc=expr(text,operand(0),lexer.len[0]);
+			constant(expression(text,operand(0),lexer.len[0]),0,IC.cleared+IC.size());
+			IC.add(OPtable.CLASS_AD,3,IntermediateCode.NONE,0,IntermediateCode.C,lc);
+		}
+
+		//Now for EQU; with a forward reference the label stays undefined until the expression resolves
+		if(cls==OPtable.CLASS_AD && opcode==4)
+		{
+			if(lexer.labelLen==0)
+				throw new IllegalArgumentException("EQU needs a label");
+			extra(1);
+			Expression e=expression(text,operand(0),lexer.len[0]);
+			int loc=e.evaluate(SYMTAB);
+			if(loc==Expression.UNRESOLVED)
 			{
-				lc=expr(parts[2]);
-				code="(AD,01)\t(C,"+lc+")";
-				bw.write(code+"\n");
-				prev="START";
+				Equ q=new Equ();
+				q.symbol=SYMTAB.define(text,lexer.labelStart,lexer.labelLen,-1);
+				q.expr=e;
+				q.ic=IC.cleared+IC.size();
+				q.line=lines;
+				q.column=column;
+				pending.add(q);
+				pendingCopy=null;
+				wait(q);
+				loc=-1;
 			}
-			
-			if(parts[1].equals("ORIGIN"))
+			else if(loc<0)
+				throw new IllegalArgumentException(negative(loc,"EQU for "+text.subSequence(lexer.labelStart,lexer.labelStart+lexer.labelLen)));
+			else
 			{
-				lc=expr(parts[2]);
-				if(parts[2].contains("+"))
-				{
-					//lc=expr(parts[2]);
-					String splits[]=parts[2].split("\\+"); //Same for - SYMBOL //Add code
-					int x=SYMTAB.get(splits[0]).getAddess()+Integer.parseInt(splits[1]);
-					code="(AD,03)\t(C,"+x+")";
-					bw.write(code+"\n");
-				}
-				else if(parts[2].contains("-"))
-				{
-					
-					String splits[]=parts[2].split("\\-"); //Same for - SYMBOL //Add code
-					int x=SYMTAB.get(splits[0]).getAddess()-Integer.parseInt(splits[1]);
-					code="(AD,03)\t(C,"+x+")";
-					bw.write(code+"\n");
-				}
-				
+				int index=SYMTAB.define(text,lexer.labelStart,lexer.labelLen,loc);
+				constant(e,index,IC.cleared+IC.size());
+				defined(index);
+				resolveEqus();
 			}
+			IC.add(OPtable.CLASS_AD,4,IntermediateCode.NONE,0,IntermediateCode.C,loc);
+		}
 
-			//Now for EQU
-			if(parts[1].equals("EQU"))
+		//ENTRY/EXTRN only mark symbols for RelocatableObjectWriter, they have no IC record
+		if(cls==OPtable.CLASS_AD && (opcode==6 || opcode==7))
+		{
+			operand(0);
+			for(int j=0;j<lexer.count;j++)
 			{
-				int loc=expr(parts[2]);
-				if(parts[2].contains("+"))
+				int s=lexer.start[j],n=lexer.len[j];
+				column=s;
+				int index=SYMTAB.find(text,s,n);
+				if(index==0)
+					index=SYMTAB.define(text,s,n,-1);
+				(opcode==6?entries:extrns).put(index,lines);
+				declaredColumn.put(index,column);
+				if(opcode==6 && diagnostics!=null && firstUse.get(index,-1)<0)
 				{
-					String splits[]=parts[2].split("\\+");
-					int x=SYMTAB.get(splits[0]).getAddess()+Integer.parseInt(splits[1]);
-					code="(AD,04)\t(C,"+x+")";
-
+					firstUse.put(index,lines);
+					firstUseColumn.put(index,column);
 				}
-				else if(parts[2].contains("-"))
-				{
-					String splits[]=parts[2].split("\\-");
-					int x=SYMTAB.get(splits[0]).getAddess()-Integer.parseInt(splits[1]);
-					code="(AD,04)\t(C,"+x+")";
-				}
-				else
-				{
-					code="(AD,04)\t(C,"+Integer.parseInt(parts[2]+")");
-				}
-				bw.write(code+"\n");
-				if(SYMTAB.containsKey(parts[0]))
-					SYMTAB.put(parts[0], new Tables(parts[0],loc,SYMTAB.get(parts[0]).getIndex())) ;
-				else
-					SYMTAB.put(parts[0], new Tables(parts[0],loc,++symIndex));	 
 			}
+		}
 
-			if(parts[1].equals("DC"))
-			{
-				lc++;
-				int constant=Integer.parseInt(parts[2].replace("'",""));
-				code="(DL,02)\t(C,"+constant+")";
-				bw.write(code+"\n");
-			}
-			else if(parts[1].equals("DS"))
+		if(cls==OPtable.CLASS_DL && opcode==2) //DC
+		{
+			extra(1);
+			lc++;
+			int constant=lexer.number(operand(0),lexer.len[0]);
+			IC.add(OPtable.CLASS_DL,2,IntermediateCode.NONE,0,IntermediateCode.C,constant);
+		}
+		else if(cls==OPtable.CLASS_DL && opcode==1) //DS
+		{
+			extra(1);
+			int size=lexer.number(operand(0),lexer.len[0]);
+			IC.add(OPtable.CLASS_DL,1,IntermediateCode.NONE,0,IntermediateCode.C,size);
+			lc=lc+size;
+		}
+		if(cls==OPtable.CLASS_IS)
+		{
+			int regKind=IntermediateCode.NONE,reg=0;
+			int kind=IntermediateCode.NONE,value=0;
+			if(opcode!=0) //everything but STOP
+				operand(0);
+			t=metrics!=null?System.nanoTime():0;
+			for(int j=0;j<lexer.count;j++)
 			{
-				
-				int size=Integer.parseInt(parts[2].replace("'", ""));
-
-				code="(DL,01)\t(C,"+size+")";
-				bw.write(code+"\n");
-				/*if(prev.equals("START"))
+				int s=lexer.start[j],n=lexer.len[j];
+				column=s;
+				int operand=lexer.literal[j]?-1:optab.find(text,s,n);
+				int ocls=OPtable.classOfCode(operand);
+				boolean register=ocls==OPtable.CLASS_RG || ocls==OPtable.CLASS_CC;
+				if(register?regKind!=IntermediateCode.NONE:kind!=IntermediateCode.NONE)
+					throw new IllegalArgumentException("Extra operand "+text.subSequence(s,s+n)+" for "+mnemonic());
+				if(register)
 				{
-					lc=lc+size-1;//System.out.println("here");
-					
+					regKind=ocls;
+					reg=OPtable.opcodeOfCode(operand);
 				}
-				else
-*/					lc=lc+size;
-				prev="";
-			}
-			if(lookup.getMnemonic(parts[1]).equals("IS"))
-			{
-				code="(IS,0"+lookup.getOpcode(parts[1])+")\t";
-				int j=2;
-				String code2="";
-				while(j<parts.length)
+				else if(lexer.literal[j])
 				{
-					parts[j]=parts[j].replace(",", "");
-					if(lookup.getMnemonic(parts[j]).equals("RG"))
-					{
-						code2+="(RG,0"+lookup.getOpcode(parts[j])+")\t";
-					}
-					else if(lookup.getMnemonic(parts[j]).equals("CC"))
+					//the same literal twice in one pool shares its LITTAB entry
+					int constant=lexer.number(s,n);
+					kind=IntermediateCode.L;
+					value=pool.get(constant,-1);
+					if(value<0)
 					{
-						code2+="(CC,0"+lookup.getOpcode(parts[j])+")\t";
+						value=litIndex;
+						LITTAB.add(new Tables(text.subSequence(s,s+n).toString(), -1,++litIndex));
+						pool.put(constant,value);
+						libtab_ptr++;
+						newptr++;
 					}
-					else
+				}
+				else
+				{
+					kind=IntermediateCode.S;
+					value=SYMTAB.find(text,s,n);
+					if(value==0) //forward reference
+						value=SYMTAB.define(text,s,n,-1);
+					if(diagnostics!=null && SYMTAB.address(value)<0 && firstUse.get(value,-1)<0)
 					{
-						if(parts[j].contains("="))
-						{
-							parts[j]=parts[j].replace("=", "").replace("'", "");
-							code2+="(L,"+(litIndex)+")";
-							LITTAB.add(new Tables(parts[j], -1,++litIndex));
-							libtab_ptr++;
-							newptr++;
-//							code2+="(L,"+(litIndex)+")";
-						}
-						else if(SYMTAB.containsKey(parts[j]))
-						{
-							int ind=SYMTAB.get(parts[j]).getIndex();
-							code2+= "(S,0"+ind+")"; 
-						}
-						else
-						{
-							SYMTAB.put(parts[j], new Tables(parts[j],-1,++symIndex));
-							int ind=SYMTAB.get(parts[j]).getIndex();
-							code2+= "(S,0"+ind+")";
-						}
+						firstUse.put(value,lines);
+						firstUseColumn.put(value,column);
 					}
-					j++;
 				}
-				lc++;
-				code=code+code2;
-				bw.write(code+"\n");
 			}
-
+			if(metrics!=null)
+				metrics.lookupNanos+=System.nanoTime()-t;
+			checkOperands(opcode,regKind,kind);
+			lc++;
+			IC.add(OPtable.CLASS_IS,opcode,regKind,reg,kind,value);
 		}
-		bw.close();
-		printIC();
-		printSYMTAB();
-		//Printing Literal table
-		PrintLITTAB();
-		printPOOLTAB();
+		return true;
 	}
-	private String x(String string) {
-		// TODO Auto-generated method stub
-		return null;
+	/*
+	 * Operand forms of the IS opcodes: STOP takes none, PRINT/READ a memory operand,
+	 * BC a condition code and a memory operand, the others a register and a memory operand.
+	 */
+	void checkOperands(int opcode,int regKind,int kind)
+	{
+		column=lexer.opStart;
+		if(opcode==0) //STOP
+		{
+			if(lexer.count>0)
+				throw new IllegalArgumentException(mnemonic()+" takes no operands");
+			return;
+		}
+		if((opcode==9 || opcode==10) && regKind!=IntermediateCode.NONE) //PRINT, READ
+			throw new IllegalArgumentException(mnemonic()+" takes no register");
+		if(kind==IntermediateCode.NONE)
+			throw new IllegalArgumentException(mnemonic()+" needs a memory operand");
+		if(opcode>=1 && opcode<=8) //MOVER .. COMP
+		{
+			int need=opcode==7?OPtable.CLASS_CC:OPtable.CLASS_RG; //BC
+			if(regKind!=need)
+				throw new IllegalArgumentException(mnemonic()+(opcode==7?" needs a condition code":" needs a register"));
+		}
 	}
-	void printIC() throws Exception
+	/*
+	 * At END: an EQU that never resolved is an error. With diagnostics on,
+	 * so is every symbol that was used or declared ENTRY but never defined,
+	 * unless it is EXTRN in relocatable output, and every EXTRN symbol the
+	 * module defines itself.
+	 */
+	void undefinedSymbols()
 	{
-		BufferedReader br = new BufferedReader(new FileReader("IC.txt"));
-		String line = br.readLine();
-		while(line != null)
+		for(Equ q : pending)
 		{
-		  System.out.println(line);
-		  line = br.readLine();
+			if(diagnostics==null)
+				throw new IllegalStateException("Undefined symbol in EQU for "+SYMTAB.name(q.symbol));
+			diagnostics.error(q.line,q.column+1,"Undefined symbol in EQU for "+SYMTAB.name(q.symbol));
+		}
+		if(diagnostics==null)
+			return;
+		for(int i=1;i<=SYMTAB.size();i++)
+		{
+			boolean extrn=extrns.get(i,-1)>=0;
+			if(SYMTAB.address(i)<0 && firstUse.get(i,-1)>=0 && !(extrn && externals))
+				diagnostics.error(firstUse.get(i,-1),firstUseColumn.get(i,-1)+1,"Undefined symbol "+SYMTAB.name(i)
+						+(extrn?" (EXTRN needs relocatable output)":""));
+			if(SYMTAB.address(i)>=0 && extrn)
+				diagnostics.error(extrns.get(i,-1),declaredColumn.get(i,-1)+1,SYMTAB.name(i)+" is declared EXTRN but defined here");
 		}
-		br.close();
 	}
-	void PrintLITTAB() throws IOException
+	//A label may be defined once; a symbol that is only referenced so far has no address yet
+	void checkLabel(CharSequence text)
 	{
-		BufferedWriter bw=new BufferedWriter(new FileWriter("LITTAB.txt"));
-		System.out.println("\nLiteral Table");
-		System.out.println("Index\tLiteral\tAddress");
-		//bw.write("\nLiteral Table\n");
-		//Processing LITTAB
+		int index=SYMTAB.find(text,lexer.labelStart,lexer.labelLen);
+		if(index!=0 && SYMTAB.address(index)>=0)
+		{
+			column=lexer.labelStart;
+			throw new IllegalArgumentException("Duplicate label "+SYMTAB.name(index));
+		}
+	}
+	/*
+	 * Input ran out before END: that is an error, and so is everything END would have
+	 * caught, plus the literals no LTORG placed (END would have).
+	 */
+	void missingEnd()
+	{
+		if(diagnostics==null)
+			throw new IllegalStateException("Missing END");
+		diagnostics.error(lines+1,1,"Missing END");
+		undefinedSymbols();
+		for(int j=0;j<LITTAB.size();j++)
+			if(LITTAB.get(j).getAddess()<0)
+				diagnostics.error(lines+1,1,"Literal ='"+LITTAB.get(j).getSymbol()+"' is never placed");
+	}
+	void defined(int index)
+	{
+		if(definedCount==defined.length)
+			defined=Arrays.copyOf(defined,definedCount*2);
+		defined[definedCount++]=index;
+	}
+	/*
+	 * Retries the EQUs waiting on the symbols defined since the last call. Each
+	 * pending EQU waits on one symbol its expression still lacks, so a line that
+	 * defines nothing costs nothing; an EQU that resolves is defined() in turn
+	 * and wakes the ones waiting on it.
+	 */
+	void resolveEqus()
+	{
+		for(;woken<definedCount;woken++)
+		{
+			int index=defined[woken];
+			if(index>=waiting.length || waiting[index]==null)
+				continue;
+			Equ q=waiting[index];
+			waiting[index]=null;
+			while(q!=null)
+			{
+				Equ next=q.next;
+				resolve(q);
+				q=next;
+			}
+		}
+	}
+	void resolve(Equ q)
+	{
+		int loc=q.expr.evaluate(SYMTAB);
+		if(loc==Expression.UNRESOLVED)
+		{
+			wait(q);
+			return;
+		}
+		pending.remove(q);
+		pendingCopy=null;
+		if(loc<0)
+		{
+			//the label stays undefined; reported at its own line, not as undefined at END
+			String message=negative(loc,"EQU for "+SYMTAB.name(q.symbol));
+			if(diagnostics==null)
+				throw new IllegalArgumentException(message);
+			diagnostics.error(q.line,q.column+1,message);
+			return;
+		}
+		SYMTAB.setAddress(q.symbol,loc);
+		constant(q.expr,q.symbol,q.ic);
+		defined(q.symbol);
+		int j=q.ic-IC.cleared;
+		if(j>=0 && j<IC.size())
+			IC.set(j,IntermediateCode.pack(OPtable.CLASS_AD,4,IntermediateCode.NONE,0,IntermediateCode.C,loc));
+	}
+	//Notes for PeepholeOptimizer whether the EQU/ORIGIN value e gave IC record ic (and EQU symbol, if not 0) is a plain number
+	void constant(Expression e,int symbol,int ic)
+	{
+		boolean plain=e.constant(constants);
+		if(symbol!=0)
+			constants.put(symbol,plain?1:0);
+		if(plain)
+			constantAt.put(ic,1);
+	}
+	//Hangs q on the chain of the first symbol it still waits for
+	void wait(Equ q)
+	{
+		int index=q.expr.waitingOn(SYMTAB);
+		if(index>=waiting.length)
+			waiting=Arrays.copyOf(waiting,Math.max(waiting.length*2,index+1));
+		q.next=waiting[index];
+		waiting[index]=q;
+	}
+	//The pending EQUs as a list that stays valid until they change; copied once per change, not per call
+	ArrayList<Equ> pendingCopy()
+	{
+		if(pendingCopy==null)
+			pendingCopy=new ArrayList<>(pending);
+		return pendingCopy;
+	}
+	//Makes equs the pending EQUs again, e.g. after SYMTAB was rolled back
+	void restorePending(ArrayList<Equ> equs)
+	{
+		pending=new LinkedHashSet<>(equs);
+		pendingCopy=equs;
+		Arrays.fill(waiting,null);
+		for(Equ q : equs)
+			wait(q);
+	}
+	//Rebuilds the literal index after LITTAB was cut back; literals from first on are unplaced
+	void resetPool(int first)
+	{
+		pool.clear();
+		for(int j=first;j<LITTAB.size();j++)
+			pool.put(Integer.parseInt(LITTAB.get(j).getSymbol()),j);
+	}
+	//Debug dump of the Pass-I tables, in the layout Pass2asm.readtables() expects
+	void dump() throws IOException
+	{
+		dump("");
+	}
+	//prefix is prepended to every file name, e.g. "out/prog_" gives out/prog_IC.txt
+	void dump(String prefix) throws IOException
+	{
+		BufferedWriter bw=new BufferedWriter(new FileWriter(prefix+"IC.txt"));
+		IC.write(bw);
+		bw.close();
+
+		DataOutputStream out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(prefix+"IC.bin")));
+		IC.writeBinary(out);
+		out.close();
+
+		bw=new BufferedWriter(new FileWriter(prefix+"SYMTAB.txt"));
+		for(int i=1;i<=SYMTAB.size();i++)
+			bw.write(i+"\t" + SYMTAB.name(i)+"\t"+SYMTAB.address(i)+"\n");
+		bw.close();
+
+		bw=new BufferedWriter(new FileWriter(prefix+"LITTAB.txt"));
 		for(int i=0;i<LITTAB.size();i++)
 		{
 			Tables row=LITTAB.get(i);
-			System.out.println(i+"\t"+row.getSymbol()+"\t"+row.getAddess());
 			bw.write((i+1)+"\t"+row.getSymbol()+"\t"+row.getAddess()+"\n");
 		}
 		bw.close();
+
+		bw=new BufferedWriter(new FileWriter(prefix+"POOLTAB.txt"));
+		for (int i = 0; i < POOLTAB.size(); i++)
+			bw.write(i+"\t"+POOLTAB.get(i)+"\n");
+		bw.close();
 	}
-	void printPOOLTAB() throws IOException
+	void printIC(StringBuilder sb)
 	{
-		BufferedWriter bw=new BufferedWriter(new FileWriter("POOLTAB.txt"));
-		System.out.println("\nPOOLTAB");
-		System.out.println("Index\tLitIndex");
-		//bw.write("\nPOOLTAB\n");
-		//bw.write("Index\t#first\n");
-		if(libtab_ptr==0)
-		POOLTAB.clear();
-		
+		for(int i=0;i<IC.size();i++)
+			sb.append(IC.toString(i)).append('\n');
+	}
+	void PrintLITTAB(StringBuilder sb)
+	{
+		sb.append("\nLiteral Table\n");
+		sb.append("Index\tLiteral\tAddress\n");
+		//Processing LITTAB
+		for(int i=0;i<LITTAB.size();i++)
+		{
+			Tables row=LITTAB.get(i);
+			sb.append(i).append('\t').append(row.getSymbol()).append('\t').append(row.getAddess()).append('\n');
+		}
+	}
+	void printPOOLTAB(StringBuilder sb)
+	{
+		sb.append("\nPOOLTAB\n");
+		sb.append("Index\tLitIndex\n");
 		for (int i = 0; i < POOLTAB.size(); i++) {
-			System.out.println(i+"\t"+POOLTAB.get(i));
-			bw.write(i+"\t"+POOLTAB.get(i)+"\n");
+			sb.append(i).append('\t').append(POOLTAB.get(i)).append('\n');
 		}
-		bw.close();
 	}
-	void printSYMTAB() throws IOException
+	void printSYMTAB(StringBuilder sb)
 	{
-		BufferedWriter bw=new BufferedWriter(new FileWriter("SYMTAB.txt"));
 		//Printing Symbol Table
-		java.util.Iterator<String> iterator = SYMTAB.keySet().iterator();
-		System.out.println("\nSYMBOL TABLE");
-		System.out.println("Index\tSymbol\tAddress");
-		//bw.write("\nSYMBOL TABLE\n");
-		while (iterator.hasNext()) {
-			String key = iterator.next().toString();
-			Tables value = SYMTAB.get(key);
-
-			System.out.println(value.getIndex()+"\t" + value.getSymbol()+"\t"+value.getAddess());
-			bw.write(value.getIndex()+"\t" + value.getSymbol()+"\t"+value.getAddess()+"\n");
+		sb.append("\nSYMBOL TABLE\n");
+		sb.append("Index\tSymbol\tAddress\n");
+		for (int i=1;i<=SYMTAB.size();i++) {
+			sb.append(i).append('\t').append(SYMTAB.name(i)).append('\t').append(SYMTAB.address(i)).append('\n');
 		}
-		bw.close();
 	}
 	public int expr(String str)
 	{
-		int temp=0;
-		if(str.contains("+"))
-		{
-			String splits[]=str.split("\\+");
-			temp=SYMTAB.get(splits[0]).getAddess()+Integer.parseInt(splits[1]);
-		}
-		else if(str.contains("-"))
-		{
-			String splits[]=str.split("\\-");
-			temp=SYMTAB.get(splits[0]).getAddess()-(Integer.parseInt(splits[1]));
-		}
-		else
+		return expr(str,0,str.length());
+	}
+	//Value of an expression that must be known now (START, ORIGIN)
+	int expr(CharSequence s,int off,int len)
+	{
+		int v=expression(s,off,len).evaluate(SYMTAB);
+		if(v==Expression.UNRESOLVED)
+			throw new IllegalArgumentException("Undefined symbol in "+s.subSequence(off,off+len));
+		if(v<0)
+			throw new IllegalArgumentException(negative(v,s.subSequence(off,off+len).toString()));
+		return v;
+	}
+	//SYMTAB and LITTAB keep -1 for "no address yet", so no value may be negative
+	static String negative(int v,String where)
+	{
+		return "Negative value "+v+" in "+where;
+	}
+	//Compiled form of the operand text, compiled on first use only
+	Expression expression(CharSequence s,int off,int len)
+	{
+		int k=exprKeys.find(s,off,len);
+		if(k==0)
 		{
-			temp=Integer.parseInt(str);
+			exprs.add(Expression.compile(s,off,len,SYMTAB));
+			k=exprKeys.define(s,off,len,0);
 		}
-		return temp;
+		return exprs.get(k-1);
+	}
+	//Compiled expressions hold SYMTAB indices, drop them when SYMTAB is cut back
+	void clearExpressions()
+	{
+		exprKeys=new SymbolTable();
+		exprs.clear();
 	}
 }
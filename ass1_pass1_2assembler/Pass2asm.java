@@ -2,22 +2,35 @@ import java.util.*;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.BufferedReader;
-import java.io.BufferedWriter; 
-//import java.io.IOException;
+import java.io.BufferedWriter;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
 
 public class Pass2asm {
-    ArrayList<Tables> SYMTAB,LITTAB;
+    SymbolTable SYMTAB;
+    ArrayList<Tables> LITTAB;
+    AsmMetrics metrics; //null unless the run is measured
 
 	public Pass2asm()
 	{
-		SYMTAB=new ArrayList<>();
+		SYMTAB=new SymbolTable();
 		LITTAB=new ArrayList<>();
 	}
+	//java Pass2asm [IC file] [-report=none|summary|full], full by default
 	public static void main(String[] args) throws Exception {
 		Pass2asm pass2=new Pass2asm();
-		
+
 		try {
-			pass2.generateCode("IC.txt");
+			String file="IC.txt";
+			for(String arg : args)
+				if(!arg.startsWith("-"))
+					file=arg;
+			Report report=new Report(Report.level(args,Report.FULL));
+			pass2.generateCode(file,report);
+			report.flush(System.out);
 		} catch (Exception e) {
 			// TODO Auto-generated catch block
 			//e.printStackTrace();
@@ -35,7 +48,7 @@ public class Pass2asm {
 			{
 				String parts[]=line.split("\\s+");
 
-				SYMTAB.add(new Tables(parts[1], Integer.parseInt(parts[2]),Integer.parseInt(parts[0]) ));
+				SYMTAB.define(parts[1], Integer.parseInt(parts[2]));
 			}
 			br.close();
 			br=new BufferedReader(new FileReader("LITTAB.txt"));
@@ -52,122 +65,128 @@ public class Pass2asm {
 	}
 
 	public void generateCode(String filename) throws Exception
+	{
+		Report report=new Report(Report.FULL);
+		generateCode(filename,report);
+		report.flush(System.out);
+	}
+	//Pass-II from the Pass-I files; the machine code listing goes into report instead of being read back from PASS2.txt
+	public void generateCode(String filename,Report report) throws Exception
 	{
 		readtables();
-		BufferedReader br=new BufferedReader(new FileReader(filename));
+		IntermediateCode ic;
+		if(filename.endsWith(".bin"))
+		{
+			DataInputStream in=new DataInputStream(new BufferedInputStream(new FileInputStream(filename)));
+			ic=IntermediateCode.readBinary(in);
+			in.close();
+		}
+		else
+		{
+			BufferedReader br=new BufferedReader(new FileReader(filename));
+			ic=IntermediateCode.read(br);
+			br.close();
+		}
 
-		BufferedWriter bw=new BufferedWriter(new FileWriter("PASS2.txt"));
-		String line,code;
-		while((line=br.readLine())!=null)
+		if(report.full())
+		{
+			//generate once into memory, then write the file and the listing from the same text
+			StringWriter code=new StringWriter();
+			BufferedWriter bw=new BufferedWriter(code);
+			generateCode(ic,bw);
+			bw.close();
+			FileWriter fw=new FileWriter("PASS2.txt");
+			fw.write(code.toString());
+			fw.close();
+			printMC(report.text,code.getBuffer());
+		}
+		else
 		{
-			if(line.contains("(RG,01)"))
-				line = line.replace("(RG,01)", "1");
-			if(line.contains("(RG,02)"))
-				line = line.replace("(RG,02)", "2");
-			if(line.contains("(RG,03)"))
-				line = line.replace("(RG,03)", "3");
-			//else if(line.contains("(RG,02)"))
-			//line = line.replace("(RG,01)", "2");
+			BufferedWriter bw=new BufferedWriter(new FileWriter("PASS2.txt"));
+			generateCode(ic,bw);
+			bw.close();
+			if(report.summary())
+				report.text.append("Pass-II: ").append(ic.size()).append(" IC records\n");
+		}
+	}
 
-			String parts[]=line.split("\\s+");
-			//System.out.println("l" parts.length);
-//			for(String s : parts) {
-//
-//				System.out.print(s + "-");
-//			}
-			if(parts[0].contains("IS,00"))
-			{
-				code="00\t00\t00\n";
-				bw.write(code);
-				break;
-			}
-			
-			if(parts[0].contains("AD"))
+	//In-memory Pass-II straight from the tables Pass1asm built, no IC.txt/SYMTAB.txt/LITTAB.txt needed
+	public void generateCode(Pass1asm pass1,BufferedWriter bw) throws Exception
+	{
+		SYMTAB=pass1.SYMTAB;
+		LITTAB=pass1.LITTAB;
+		generateCode(pass1.IC,bw);
+	}
+
+	void generateCode(IntermediateCode ic,BufferedWriter bw) throws Exception
+	{
+		generateCode(ic,new TextObjectWriter(bw));
+	}
+
+	public void generateCode(Pass1asm pass1,ObjectWriter out) throws Exception
+	{
+		SYMTAB=pass1.SYMTAB;
+		LITTAB=pass1.LITTAB;
+		generateCode(pass1.IC,out);
+	}
+
+	void generateCode(IntermediateCode ic,ObjectWriter out) throws Exception
+	{
+		long t=metrics!=null?System.nanoTime():0;
+		long bytes=metrics!=null?AsmMetrics.allocatedBytes():0;
+		int address[]=new int[ic.size()];
+		for(int i=0;i<ic.size();i++)
+			address[i]=address(ic.kind(i),ic.value(i));
+		write(ic,address,out);
+		if(metrics!=null)
+		{
+			metrics.codegenNanos+=System.nanoTime()-t;
+			metrics.pass2Bytes+=AsmMetrics.allocatedBytes()-bytes;
+			metrics.records+=ic.size();
+		}
+	}
+
+	//Emits ic with address[i] as the resolved operand of record i
+	static void write(IntermediateCode ic,int address[],ObjectWriter out) throws IOException
+	{
+		int lc=0;
+		for(int i=0;i<ic.size();i++)
+		{
+			long r=ic.get(i);
+			int cls=IntermediateCode.clsOf(r),opcode=IntermediateCode.opcodeOf(r);
+			if(isStop(r))
 			{
-				bw.write("\n");
+				//data and literals after STOP still go out, the writer decides whether it keeps them
+				out.stop(lc++);
 				continue;
 			}
-			else if(parts.length==2)
+			if(cls==OPtable.CLASS_AD)
 			{
-				if(parts[0].contains("DL")) //DC INSTR
-				{
-					
-					parts[0]=parts[0].replaceAll("[^0-9]", "");
-//					if(Integer.parseInt(parts[0])==1)
-//					{
-						int constant=Integer.parseInt(parts[1].replaceAll("[^0-9]", ""));
-						code="00\t00\t"+String.format("%03d", constant)+"\n";
-						bw.write(code);	
-					//}
-//					else if(Integer.parseInt(parts[0])==2)
-//					{
-//						int constant=Integer.parseInt(parts[1].replaceAll("[^0-9]", ""));
-//						code="00\t00\t"+String.format("%03d", constant)+"\n";
-//						bw.write(code);						
-//					}
-				}
-				else if(parts[0].contains("IS"))
-				{
-					int opcode=Integer.parseInt(parts[0].replaceAll("[^0-9]", ""));
-					if(opcode==10)
-					{
-						if(parts[1].contains("S"))
-						{
-							int symIndex=Integer.parseInt(parts[1].replaceAll("[^0-9]", ""));
-							code=String.format("%02d", opcode)+"\t0\t"+String.format("%03d", SYMTAB.get(symIndex-1).getAddess())+"\n";
-							bw.write(code);
-						}
-						else if(parts[1].contains("L"))
-						{
-							int symIndex=Integer.parseInt(parts[1].replaceAll("[^0-9]", ""));
-							code=String.format("%02d", opcode)+"\t0\t"+String.format("%03d", LITTAB.get(symIndex-1).getAddess())+"\n";
-							bw.write(code);
-						}
-						
-					}
-				}
-			}
-//			
-			else if(parts.length==1 && parts[0].contains("IS"))
-			{
-				int opcode=Integer.parseInt(parts[0].replaceAll("[^0-9]", ""));
-				code=String.format("%02d", opcode)+"\t0\t"+String.format("%03d", 0)+"\n";
-				bw.write(code);
+				out.directive(r);
+				if(opcode==1 || opcode==3) //START, ORIGIN
+					lc=IntermediateCode.valueOf(r);
+				continue;
 			}
-			else if(parts[0].contains("IS") && parts.length==3) //All OTHER IS INSTR
-			{
-				int opcode=	Integer.parseInt(parts[0].replaceAll("[^0-9]", ""));
-			
-				int regcode= Integer.parseInt(parts[1].replaceAll("[^0-9]", ""));
-			
-				if(parts[2].contains("S"))
-				{
-					int symIndex=Integer.parseInt(parts[2].replaceAll("[^0-9]", ""));
-					code=String.format("%02d", opcode)+"\t0"+regcode+"\t"+String.format("%03d", SYMTAB.get(symIndex-1).getAddess())+"\n";
-					bw.write(code);
-				}
-				else if(parts[2].contains("L"))
-				{
-					int symIndex=Integer.parseInt(parts[2].replaceAll("[^0-9]", ""));
-					code=String.format("%02d", opcode)+"\t0"+regcode+"\t"+String.format("%03d", LITTAB.get(symIndex).getAddess())+"\n";
-					bw.write(code);
-				}		
-			}	
+			out.word(lc,r,address[i]);
+			lc+=(cls==OPtable.CLASS_DL && opcode==1)?IntermediateCode.valueOf(r):1;
 		}
-		bw.close();
-		printMC();
-		br.close();
+		out.close();
 	}
-	void printMC() throws Exception
+	static boolean isStop(long r)
 	{
-		BufferedReader br = new BufferedReader(new FileReader("PASS2.txt"));
-		String line = br.readLine();
-		System.out.println("Machine Code");
-		while(line != null)
-		{
-		  System.out.println(line);
-		  line = br.readLine();
-		}
-		br.close();
+		return IntermediateCode.clsOf(r)==OPtable.CLASS_IS && IntermediateCode.opcodeOf(r)==0;
+	}
+	int address(int kind,int value)
+	{
+		if(kind==IntermediateCode.S)
+			return SYMTAB.address(value);
+		else if(kind==IntermediateCode.L)
+			return LITTAB.get(value).getAddess();
+		return 0;
+	}
+	void printMC(StringBuilder sb,CharSequence code)
+	{
+		sb.append("Machine Code\n");
+		sb.append(code);
 	}
 }
@@ -0,0 +1,284 @@
+import java.util.*;
+
+/*
+ * Peephole pass over the intermediate code of a finished Pass-I, run before
+ * Pass-II. Each Rule looks at an IS record and the record right after it and
+ * may rewrite or delete records in place; the built-in ones are
+ *
+ *   store-load  MOVEM r,X  MOVER r,X    the MOVER is dropped (r already holds X)
+ *   no-op       ADD/SUB r,='0'  MULT/DIV r,='1'    dropped
+ *   fold        ADD/SUB r,='a'  ADD/SUB r,='b'     one ADD/SUB of a literal already in
+ *                                                  LITTAB with the combined value, or
+ *                                                  nothing at all if it is 0
+ *
+ * A record that carries a label is never deleted, so branch targets stay.
+ * Deleting a word moves everything after it down by one: labels, LITTAB
+ * addresses and the EQUs and ORIGINs built from a location are shifted
+ * accordingly. An EQU or ORIGIN whose value is a plain number (N EQU 200,
+ * ORIGIN 300, see Pass1asm.constants) keeps it, so no word below the target
+ * of such an ORIGIN is deleted: the code after it could not move down.
+ * Rules are applied until nothing changes.
+ */
+public class PeepholeOptimizer {
+
+	interface Rule
+	{
+		String name();
+		//Rewrites/deletes records from i on (i is a live IS record); true if it changed anything
+		boolean apply(PeepholeOptimizer opt,int i);
+	}
+
+	IntermediateCode ic;
+	SymbolTable symtab;
+	ArrayList<Tables> littab;
+	IntMap constants,constantAt; //from Pass1asm; constantAt follows the records as they move
+	ArrayList<Rule> rules=new ArrayList<>();
+	int counts[]=new int[0];  //records deleted per rule
+	int loc[];                //location of every record
+	boolean deleted[];
+	IntMap labelled=new IntMap(); //addresses that carry a symbol
+	IntMap literals=new IntMap(); //placed literal value -> LITTAB index
+	int floor;                    //words below this location stay, a plain-number ORIGIN targets it
+	int removed;
+
+	public PeepholeOptimizer()
+	{
+		add(new StoreLoad());
+		add(new NoOp());
+		add(new Fold());
+	}
+
+	public void add(Rule rule)
+	{
+		rules.add(rule);
+		counts=Arrays.copyOf(counts,rules.size());
+	}
+
+	//Optimizes the IC of pass1 in place; returns the number of records removed. Stats add up over calls.
+	public int optimize(Pass1asm pass1)
+	{
+		ic=pass1.IC;
+		symtab=pass1.SYMTAB;
+		littab=pass1.LITTAB;
+		constants=pass1.constants;
+		constantAt=pass1.constantAt;
+		int total=0;
+		while(true)
+		{
+			prepare();
+			removed=0;
+			for(int i=0;i<ic.size();i++)
+			{
+				if(deleted[i] || ic.cls(i)!=OPtable.CLASS_IS)
+					continue;
+				for(int k=0;k<rules.size();k++)
+				{
+					int before=removed;
+					if(rules.get(k).apply(this,i))
+					{
+						counts[k]+=removed-before;
+						if(deleted[i])
+							break;
+					}
+				}
+			}
+			if(removed==0)
+				return total;
+			total+=removed;
+			compact();
+		}
+	}
+
+	void prepare()
+	{
+		loc=new int[ic.size()];
+		deleted=new boolean[ic.size()];
+		int lc=0;
+		floor=0;
+		for(int i=0;i<ic.size();i++)
+		{
+			loc[i]=lc;
+			int cls=ic.cls(i),opcode=ic.opcode(i);
+			if(cls==OPtable.CLASS_AD)
+			{
+				if(opcode==1 || opcode==3) //START, ORIGIN
+					lc=ic.value(i);
+				if(opcode==3 && constantAt.get(i,0)!=0)
+					floor=Math.max(floor,lc);
+			}
+			else
+				lc+=(cls==OPtable.CLASS_DL && opcode==1)?ic.value(i):1;
+		}
+		labelled.clear();
+		for(int s=1;s<=symtab.size();s++)
+			if(symtab.address(s)>=0)
+				labelled.put(symtab.address(s),1);
+		literals.clear();
+		for(int j=0;j<littab.size();j++)
+			if(littab.get(j).getAddess()>=0 && literals.get(literalValue(j),-1)<0)
+				literals.put(literalValue(j),j);
+	}
+
+	//Drops the deleted records and moves every address behind a deleted word down
+	void compact()
+	{
+		int gone[]=new int[removed];
+		int n=0;
+		for(int i=0;i<deleted.length;i++)
+			if(deleted[i])
+				gone[n++]=loc[i];
+		Arrays.sort(gone); //ORIGIN may move backwards
+		for(int s=1;s<=symtab.size();s++)
+			if(symtab.address(s)>=0 && constants.get(s,0)==0)
+				symtab.setAddress(s,shift(gone,symtab.address(s)));
+		for(Tables row : littab)
+			if(row.getAddess()>=0)
+				row.setAddess(shift(gone,row.getAddess()));
+		IntMap moved=new IntMap();
+		int k=0;
+		for(int i=0;i<deleted.length;i++)
+		{
+			if(deleted[i])
+				continue;
+			long r=ic.get(i);
+			int cls=IntermediateCode.clsOf(r),opcode=IntermediateCode.opcodeOf(r);
+			if(constantAt.get(i,0)!=0)
+				moved.put(k,1);
+			else if(cls==OPtable.CLASS_AD && (opcode==3 || opcode==4)) //ORIGIN, EQU
+				r=IntermediateCode.pack(cls,opcode,IntermediateCode.regKindOf(r),IntermediateCode.regOf(r),
+						IntermediateCode.kindOf(r),shift(gone,IntermediateCode.valueOf(r)));
+			ic.set(k++,r);
+		}
+		ic.truncate(k);
+		constantAt.clear();
+		for(int i=0;i<k;i++)
+			if(moved.get(i,0)!=0)
+				constantAt.put(i,1);
+	}
+
+	//address minus the deleted words below it
+	static int shift(int gone[],int address)
+	{
+		int lo=0,hi=gone.length;
+		while(lo<hi)
+		{
+			int mid=(lo+hi)>>>1;
+			if(gone[mid]<address)
+				lo=mid+1;
+			else
+				hi=mid;
+		}
+		return address-lo;
+	}
+
+	//Next live record after i if it directly follows i in memory, -1 otherwise
+	int next(int i)
+	{
+		int j=i+1;
+		while(j<ic.size() && deleted[j])
+			j++;
+		if(j==ic.size() || ic.cls(j)!=OPtable.CLASS_IS)
+			return -1;
+		return j;
+	}
+
+	boolean labelled(int i) {
+		return labelled.get(loc[i],0)!=0;
+	}
+	//A record that must stay: it carries a label or lies below a plain-number ORIGIN
+	boolean fixed(int i) {
+		return loc[i]<floor || labelled(i);
+	}
+	boolean literal(int i) {
+		return ic.kind(i)==IntermediateCode.L;
+	}
+	int literalValue(int j) {
+		return Integer.parseInt(littab.get(j).getSymbol());
+	}
+	void delete(int i)
+	{
+		deleted[i]=true;
+		removed++;
+	}
+
+	static class StoreLoad implements Rule
+	{
+		public String name() {
+			return "store-load";
+		}
+		public boolean apply(PeepholeOptimizer opt,int i)
+		{
+			IntermediateCode ic=opt.ic;
+			int j=opt.next(i);
+			if(j<0 || ic.opcode(i)!=2 || ic.opcode(j)!=1 || opt.fixed(j)) //MOVEM, MOVER
+				return false;
+			if(ic.kind(i)!=IntermediateCode.S || ic.kind(j)!=IntermediateCode.S || ic.value(i)!=ic.value(j)
+					|| ic.regKind(i)!=ic.regKind(j) || ic.reg(i)!=ic.reg(j))
+				return false;
+			opt.delete(j);
+			return true;
+		}
+	}
+
+	static class NoOp implements Rule
+	{
+		public String name() {
+			return "no-op";
+		}
+		public boolean apply(PeepholeOptimizer opt,int i)
+		{
+			IntermediateCode ic=opt.ic;
+			int opcode=ic.opcode(i);
+			if(!opt.literal(i) || opt.fixed(i))
+				return false;
+			int v=opt.literalValue(ic.value(i));
+			if(((opcode==3 || opcode==4) && v==0) || ((opcode==5 || opcode==6) && v==1)) //ADD/SUB 0, MULT/DIV 1
+			{
+				opt.delete(i);
+				return true;
+			}
+			return false;
+		}
+	}
+
+	static class Fold implements Rule
+	{
+		public String name() {
+			return "fold";
+		}
+		public boolean apply(PeepholeOptimizer opt,int i)
+		{
+			IntermediateCode ic=opt.ic;
+			int j=opt.next(i);
+			if(j<0 || !opt.literal(i) || !opt.literal(j) || opt.fixed(j) || ic.reg(i)!=ic.reg(j))
+				return false;
+			if((ic.opcode(i)!=3 && ic.opcode(i)!=4) || (ic.opcode(j)!=3 && ic.opcode(j)!=4)) //ADD, SUB
+				return false;
+			int sum=(ic.opcode(i)==3?1:-1)*opt.literalValue(ic.value(i))+(ic.opcode(j)==3?1:-1)*opt.literalValue(ic.value(j));
+			if(sum==0 && !opt.fixed(i))
+			{
+				opt.delete(i);
+				opt.delete(j);
+				return true;
+			}
+			int lit=opt.literals.get(Math.abs(sum),-1);
+			if(sum==0 || lit<0)
+				return false;
+			ic.set(i,IntermediateCode.pack(OPtable.CLASS_IS,sum>0?3:4,ic.regKind(i),ic.reg(i),IntermediateCode.L,lit));
+			opt.delete(j);
+			return true;
+		}
+	}
+
+	public String stats()
+	{
+		StringBuilder sb=new StringBuilder("Peephole:");
+		int total=0;
+		for(int k=0;k<rules.size();k++)
+		{
+			sb.append(' ').append(rules.get(k).name()).append(' ').append(counts[k]);
+			total+=counts[k];
+		}
+		return sb.append(", ").append(total).append(" records removed").toString();
+	}
+}
@@ -0,0 +1,170 @@
+import java.util.*;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/*
+ * Relocatable object module for Linker. Words are in the OBJ1 layout
+ * (opcode<<24 | reg<<16 | address, or the constant), but every address is an
+ * offset from the module's START, so the module can be loaded anywhere.
+ * Big-endian ints, names as writeUTF:
+ *
+ *   "REL1", start, size, size words
+ *   relocations  count, offset..            words whose address field gets the load base added
+ *   exports      count, (name, offset)..    the symbols declared ENTRY
+ *   externals    count, name..              EXTRN symbols the module uses
+ *   references   count, (offset, external)..words whose address field is an external's address
+ *
+ * Every other symbol stays local to the module, so two modules may both have
+ * a LOOP or an X. An ENTRY on an EQU symbol exports it like a label, i.e.
+ * relative to the module. The module is only written by close(); after an
+ * error discard() removes whatever is at file instead.
+ */
+public class RelocatableObjectWriter implements ObjectWriter {
+
+	static final int MAGIC=0x52454C31; //"REL1"
+	static final int FORMAT=3;          //Assembler format number, next to MappedObjectWriter.FIXED/BINARY
+
+	String file;
+	SymbolTable symtab;
+	IntMap entries; //SYMTAB index -> ENTRY line, see Pass1asm
+	int start=-1;
+	int words[]=new int[256];
+	int size;
+	int relocations[]=new int[64];
+	int relocationCount;
+	int externalOf[]=new int[16]; //SYMTAB index -> external number + 1
+	ArrayList<String> externals=new ArrayList<>();
+	int references[]=new int[64]; //(offset, external) pairs
+	int referenceLen;
+
+	public RelocatableObjectWriter(String file,SymbolTable symtab,IntMap entries)
+	{
+		this.file=file;
+		this.symtab=symtab;
+		this.entries=entries;
+	}
+
+	boolean exported(int index) {
+		return symtab.address(index)>=0 && entries.get(index,-1)>=0;
+	}
+
+	int offset(int lc)
+	{
+		int off=lc-Math.max(start,0);
+		if(off<0)
+			throw new IllegalArgumentException("Location "+lc+" is below START "+start);
+		return off;
+	}
+
+	void place(int off,int count,int word)
+	{
+		if(off+count>words.length)
+			words=Arrays.copyOf(words,Math.max(words.length*2,off+count));
+		Arrays.fill(words,off,off+count,word);
+		size=Math.max(size,off+count);
+	}
+
+	public void word(int lc,long r,int address) throws IOException
+	{
+		int off=offset(lc);
+		if(IntermediateCode.clsOf(r)==OPtable.CLASS_DL)
+		{
+			if(IntermediateCode.opcodeOf(r)==1) //DS
+				place(off,IntermediateCode.valueOf(r),0);
+			else
+				place(off,1,IntermediateCode.valueOf(r));
+			return;
+		}
+		int kind=IntermediateCode.kindOf(r);
+		if(kind==IntermediateCode.S && address<0)
+		{
+			place(off,1,MappedObjectWriter.pack(lc,r,0));
+			reference(off,external(IntermediateCode.valueOf(r)));
+		}
+		else if(kind==IntermediateCode.S || kind==IntermediateCode.L)
+		{
+			place(off,1,MappedObjectWriter.pack(lc,r,address-Math.max(start,0)));
+			relocations=OnePassAssembler.grow(relocations,relocationCount);
+			relocations[relocationCount++]=off;
+		}
+		else
+			place(off,1,MappedObjectWriter.pack(lc,r,address));
+	}
+
+	int external(int index)
+	{
+		externalOf=OnePassAssembler.grow(externalOf,index);
+		if(externalOf[index]==0)
+		{
+			externals.add(symtab.name(index));
+			externalOf[index]=externals.size();
+		}
+		return externalOf[index]-1;
+	}
+
+	void reference(int off,int external)
+	{
+		references=OnePassAssembler.grow(references,referenceLen+1);
+		references[referenceLen++]=off;
+		references[referenceLen++]=external;
+	}
+
+	public void directive(long r)
+	{
+		if(start<0 && IntermediateCode.opcodeOf(r)==1) //START
+			start=IntermediateCode.valueOf(r);
+	}
+
+	public void stop(int lc)
+	{
+		place(offset(lc),1,0);
+	}
+
+	public void close() throws IOException
+	{
+		int base=Math.max(start,0);
+		DataOutputStream out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(base);
+			out.writeInt(size);
+			for(int i=0;i<size;i++)
+				out.writeInt(words[i]);
+			out.writeInt(relocationCount);
+			for(int i=0;i<relocationCount;i++)
+				out.writeInt(relocations[i]);
+			int exported=0;
+			for(int i=1;i<=symtab.size();i++)
+				if(exported(i))
+					exported++;
+			out.writeInt(exported);
+			for(int i=1;i<=symtab.size();i++)
+				if(exported(i))
+				{
+					out.writeUTF(symtab.name(i));
+					out.writeInt(symtab.address(i)-base);
+				}
+			out.writeInt(externals.size());
+			for(String name : externals)
+				out.writeUTF(name);
+			out.writeInt(referenceLen/2);
+			for(int i=0;i<referenceLen;i++)
+				out.writeInt(references[i]);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	//Removes the module file, for a run that failed before or during close()
+	public void discard() throws IOException
+	{
+		Files.deleteIfExists(Path.of(file));
+	}
+}
@@ -0,0 +1,61 @@
+import java.io.PrintStream;
+
+/*
+ * Console report of an assembler run, collected in one buffer and written
+ * with a single call at the end instead of one println per table row.
+ *
+ *   none     nothing
+ *   summary  one line per pass (sizes of the tables / words written)
+ *   full     the legacy listing: IC, SYMTAB, LITTAB, POOLTAB, machine code
+ */
+public class Report {
+
+	static final int NONE=0,SUMMARY=1,FULL=2;
+
+	int level;
+	StringBuilder text=new StringBuilder();
+
+	public Report(int level)
+	{
+		this.level=level;
+	}
+
+	//"none", "summary" or "full"
+	static int level(String name)
+	{
+		switch(name.toLowerCase())
+		{
+		case "none":
+			return NONE;
+		case "summary":
+			return SUMMARY;
+		case "full":
+			return FULL;
+		}
+		throw new IllegalArgumentException("Unknown report level "+name);
+	}
+
+	//Level given by a "-report=<level>" argument, def if there is none
+	static int level(String args[],int def)
+	{
+		for(String arg : args)
+			if(arg.startsWith("-report="))
+				return level(arg.substring(8));
+		return def;
+	}
+
+	public boolean summary() {
+		return level>=SUMMARY;
+	}
+	public boolean full() {
+		return level==FULL;
+	}
+
+	public void flush(PrintStream out)
+	{
+		if(text.length()>0)
+			out.print(text);
+		out.flush();
+		text.setLength(0);
+	}
+}
@@ -0,0 +1,302 @@
+import java.util.*;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+
+/*
+ * Loader and interpreter for the machine code Pass2asm produces.
+ *
+ * The memory image is an int[] of words in the OBJ1 layout of
+ * MappedObjectWriter: opcode<<24 | reg<<16 | address for an instruction, the
+ * value itself for a constant. It is filled either from an OBJ1 file (load)
+ * or directly by Pass2asm, since the simulator is an ObjectWriter too.
+ *
+ * run() decodes every word once into op[]/reg[]/addr[] and then executes out
+ * of those arrays with one switch per instruction; a MOVEM re-decodes the word
+ * it overwrites. Every load and store is bounds checked and reports the address
+ * and the instruction. A program must fit in the WORDS words an address can
+ * reach; a record past them is refused when it is loaded. Registers are
+ * AREG..CREG (1..3), COMP keeps the sign of register-memory and BC tests it
+ * with the CC codes of OPtable (EQ LT GT LE GE NE ANY). READ takes the next input value, PRINT appends the
+ * word to the output.
+ *
+ * Usage: java Simulator <object file | source.asm> [-in=v1,v2,..] [-limit=n] [-stats] [-O]
+ *   a file that does not start with "OBJ1" is assembled first, with -O through the PeepholeOptimizer
+ */
+public class Simulator implements ObjectWriter {
+
+	static final int WORDS=0x10000; //what the 16-bit address field of a word can reach
+	static final String NAMES[]={"STOP","MOVER","MOVEM","ADD","SUB","MULT","DIV","BC","COMP","PRINT","READ"};
+
+	int memory[]=new int[1024];
+	int size;       //words below this address are loaded
+	int start=-1;
+	int op[],reg[],addr[];
+	int regs[]=new int[10]; //every register code OPtable accepts (0..9)
+	int cmp;        //sign of the last COMP
+	int input[]=new int[0];
+	int inputPos;
+	StringBuilder output=new StringBuilder();
+	long counts[]=new long[NAMES.length];
+	long steps;
+	long limit=Long.MAX_VALUE;
+
+	public static void main(String[] args) {
+		String file=null;
+		boolean stats=false,optimize=false;
+		Simulator sim=new Simulator();
+		for(String arg : args)
+		{
+			if(arg.startsWith("-in="))
+			{
+				String values[]=arg.substring(4).split(",");
+				sim.input=new int[values.length];
+				for(int i=0;i<values.length;i++)
+					sim.input[i]=Integer.parseInt(values[i].trim());
+			}
+			else if(arg.startsWith("-limit="))
+				sim.limit=Long.parseLong(arg.substring(7));
+			else if(arg.equals("-stats"))
+				stats=true;
+			else if(arg.equals("-O"))
+				optimize=true;
+			else
+				file=arg;
+		}
+		if(file==null)
+		{
+			System.out.println("Usage: java Simulator <object file | source.asm> [-in=v1,v2,..] [-limit=n] [-stats] [-O]");
+			return;
+		}
+		try
+		{
+			if(isObject(file))
+				sim.load(file);
+			else
+			{
+				Pass1asm pass1=new Pass1asm();
+				pass1.diagnostics=new Diagnostics(file);
+				BufferedReader br=new BufferedReader(new FileReader(file));
+				pass1.assemble(br);
+				br.close();
+				pass1.checkDiagnostics();
+				if(optimize)
+					new PeepholeOptimizer().optimize(pass1);
+				new Pass2asm().generateCode(pass1,sim);
+			}
+			long t=System.nanoTime();
+			sim.run();
+			t=System.nanoTime()-t;
+			System.out.print(sim.output);
+			if(stats)
+				System.out.print(sim.stats(t));
+		}
+		catch (Exception e) {
+			System.out.print(sim.output);
+			System.out.println("Error: "+e);
+		}
+	}
+
+	static boolean isObject(String file) throws IOException
+	{
+		DataInputStream in=new DataInputStream(new FileInputStream(file));
+		try
+		{
+			return in.readInt()==MappedObjectWriter.MAGIC;
+		}
+		catch (EOFException e) {
+			return false;
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	//Loads an OBJ1 file written by MappedObjectWriter (BINARY)
+	public void load(String file) throws IOException
+	{
+		DataInputStream in=new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try
+		{
+			if(in.readInt()!=MappedObjectWriter.MAGIC)
+				throw new IOException(file+" is not an OBJ1 object file");
+			start=in.readInt();
+			while(true)
+			{
+				int loc;
+				try
+				{
+					loc=in.readInt();
+				}
+				catch (EOFException e) {
+					break;
+				}
+				int count=in.readInt();
+				place(loc,count,in.readInt());
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	//count words of value word from loc on
+	void place(int loc,int count,int word)
+	{
+		if(loc<0 || count<0)
+			throw new IllegalArgumentException("Bad object record at "+loc);
+		if((long)loc+count>WORDS)
+			throw new IllegalArgumentException("Program does not fit in "+WORDS+" words: record at "+loc+" of "+count);
+		if(loc+count>memory.length)
+			memory=Arrays.copyOf(memory,Math.max(memory.length*2,loc+count));
+		Arrays.fill(memory,loc,loc+count,word);
+		size=Math.max(size,loc+count);
+	}
+
+	public void word(int lc,long r,int address)
+	{
+		if(IntermediateCode.clsOf(r)==OPtable.CLASS_DL && IntermediateCode.opcodeOf(r)==1) //DS
+			place(lc,IntermediateCode.valueOf(r),0);
+		else if(IntermediateCode.clsOf(r)==OPtable.CLASS_DL) //DC
+			place(lc,1,IntermediateCode.valueOf(r));
+		else
+			place(lc,1,MappedObjectWriter.pack(lc,r,address));
+	}
+
+	public void directive(long r)
+	{
+		if(start<0 && IntermediateCode.opcodeOf(r)==1) //START
+			start=IntermediateCode.valueOf(r);
+	}
+
+	public void stop(int lc)
+	{
+		place(lc,1,0);
+	}
+
+	public void close() {
+	}
+
+	void decode(int a)
+	{
+		op[a]=memory[a]>>>24;
+		reg[a]=(memory[a]>>>16)&0xFF;
+		addr[a]=memory[a]&0xFFFF;
+	}
+
+	void store(int a,int v,int pc)
+	{
+		if(a>=size)
+			throw new IllegalStateException("Store to "+a+" outside the program at "+pc);
+		memory[a]=v;
+		decode(a);
+	}
+
+	int load(int a,int pc)
+	{
+		if(a>=size)
+			throw new IllegalStateException("Load from "+a+" outside the program at "+pc);
+		return memory[a];
+	}
+
+	//Runs from the start address until STOP; returns the number of instructions executed
+	public long run()
+	{
+		op=new int[size];
+		reg=new int[size];
+		addr=new int[size];
+		for(int a=0;a<size;a++)
+			decode(a);
+		int pc=Math.max(start,0);
+		while(true)
+		{
+			if(pc<0 || pc>=size)
+				throw new IllegalStateException("Program counter out of range: "+pc);
+			if(steps==limit)
+				throw new IllegalStateException("Instruction limit of "+limit+" reached at "+pc);
+			int o=op[pc],r=reg[pc],a=addr[pc];
+			if(o>=NAMES.length)
+				throw new IllegalStateException("Illegal opcode "+o+" at "+pc);
+			if(r>=regs.length)
+				throw new IllegalStateException("Illegal register "+r+" at "+pc);
+			steps++;
+			counts[o]++;
+			pc++;
+			switch(o)
+			{
+			case 0: //STOP
+				return steps;
+			case 1: //MOVER
+				regs[r]=load(a,pc-1);
+				break;
+			case 2: //MOVEM
+				store(a,regs[r],pc-1);
+				break;
+			case 3: //ADD
+				regs[r]+=load(a,pc-1);
+				break;
+			case 4: //SUB
+				regs[r]-=load(a,pc-1);
+				break;
+			case 5: //MULT
+				regs[r]*=load(a,pc-1);
+				break;
+			case 6: //DIV
+				int divisor=load(a,pc-1);
+				if(divisor==0)
+					throw new IllegalStateException("Division by zero at "+(pc-1));
+				regs[r]/=divisor;
+				break;
+			case 7: //BC
+				if(taken(r))
+					pc=a;
+				break;
+			case 8: //COMP
+				cmp=Integer.compare(regs[r],load(a,pc-1));
+				break;
+			case 9: //PRINT
+				output.append(load(a,pc-1)).append('\n');
+				break;
+			case 10: //READ
+				if(inputPos==input.length)
+					throw new IllegalStateException("READ at "+(pc-1)+" past the end of the input");
+				store(a,input[inputPos++],pc-1);
+				break;
+			}
+		}
+	}
+
+	boolean taken(int cc)
+	{
+		switch(cc)
+		{
+		case 1: return cmp==0; //EQ
+		case 2: return cmp<0;  //LT
+		case 3: return cmp>0;  //GT
+		case 4: return cmp<=0; //LE
+		case 5: return cmp>=0; //GE
+		case 6: return cmp!=0; //NE
+		case 7: return true;   //ANY
+		}
+		throw new IllegalStateException("Bad condition code "+cc);
+	}
+
+	String stats(long nanos)
+	{
+		StringBuilder sb=new StringBuilder();
+		sb.append("Instructions: ").append(steps);
+		if(nanos>0)
+			sb.append(String.format(" in %.3f ms (%.1f M/s)",nanos/1e6,steps*1e3/nanos));
+		sb.append('\n');
+		for(int i=0;i<NAMES.length;i++)
+			if(counts[i]>0)
+				sb.append(NAMES[i]).append('\t').append(counts[i]).append('\n');
+		return sb.toString();
+	}
+}
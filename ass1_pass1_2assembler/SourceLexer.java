@@ -0,0 +1,174 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+
+/*
+ * Splits an assembler source line into label, mnemonic and operand spans
+ * without creating Strings. The line lives in a reused char[] (line), and
+ * every field is an (offset,length) pair into it; chars is a CharSequence
+ * view of the same array for OPtable/SymbolTable lookups.
+ *
+ *   [label] <ws> mnemonic <ws> operand {, operand}
+ *
+ * A line that starts with white space has no label. Operands are separated by
+ * commas and/or white space. ='5' is a literal operand, its value span is the
+ * text between the quotes.
+ */
+public class SourceLexer {
+
+	char line[]=new char[256];
+	int length;
+	CharBuffer chars=CharBuffer.wrap(line);
+
+	int labelStart,labelLen;
+	int opStart,opLen;
+	int count; //operands on this line
+	int start[]=new int[8],len[]=new int[8];
+	boolean literal[]=new boolean[8];
+
+	//read-ahead buffer for readLine(Reader)
+	char in[]=new char[8192];
+	int pos,limit;
+
+	//Reads the next line of r into line[] and scans it; false at end of input
+	public boolean readLine(Reader r) throws IOException
+	{
+		length=0;
+		while(true)
+		{
+			if(pos==limit)
+			{
+				limit=r.read(in,0,in.length);
+				pos=0;
+				if(limit<=0)
+				{
+					limit=0;
+					if(length==0)
+						return false;
+					break;
+				}
+			}
+			char c=in[pos++];
+			if(c=='\n')
+				break;
+			if(c!='\r')
+				append(c);
+		}
+		scan();
+		return true;
+	}
+
+	//Copies s into line[] and scans it
+	public void set(CharSequence s)
+	{
+		length=0;
+		for(int i=0;i<s.length();i++)
+			append(s.charAt(i));
+		scan();
+	}
+
+	void append(char c)
+	{
+		if(length==line.length)
+		{
+			line=java.util.Arrays.copyOf(line,length*2);
+			chars=CharBuffer.wrap(line);
+		}
+		line[length++]=c;
+	}
+
+	void scan()
+	{
+		int i=0;
+		labelStart=labelLen=opStart=opLen=count=0;
+		while(i<length && !space(line[i]))
+			i++;
+		labelLen=i;
+		i=skip(i);
+		opStart=i;
+		while(i<length && !space(line[i]))
+			i++;
+		opLen=i-opStart;
+		i=skip(i);
+		while(i<length)
+		{
+			int s=i;
+			while(i<length && !space(line[i]) && line[i]!=',')
+				i++;
+			if(count==start.length)
+			{
+				start=java.util.Arrays.copyOf(start,count*2);
+				len=java.util.Arrays.copyOf(len,count*2);
+				literal=java.util.Arrays.copyOf(literal,count*2);
+			}
+			boolean lit=line[s]=='=';
+			if(lit)
+			{
+				s++;
+				while(s<i && line[s]=='\'')
+					s++;
+				int e=i;
+				while(e>s && line[e-1]=='\'')
+					e--;
+				start[count]=s;
+				len[count]=e-s;
+			}
+			else
+			{
+				start[count]=s;
+				len[count]=i-s;
+			}
+			literal[count]=lit;
+			count++;
+			i=skip(i);
+		}
+	}
+
+	int skip(int i)
+	{
+		while(i<length && (space(line[i]) || line[i]==','))
+			i++;
+		return i;
+	}
+
+	static boolean space(char c)
+	{
+		return c==' ' || c=='\t' || c=='\f' || c=='\u000B';
+	}
+
+	public boolean blank() {
+		return labelLen==0 && opLen==0;
+	}
+
+	//Integer value of an operand span, quotes around the digits are ignored ('5' or 5)
+	public int number(int off,int n)
+	{
+		return parseInt(chars,off,n);
+	}
+
+	static int parseInt(CharSequence s,int off,int n)
+	{
+		int end=off+n;
+		while(off<end && s.charAt(off)=='\'')
+			off++;
+		while(end>off && s.charAt(end-1)=='\'')
+			end--;
+		boolean neg=false;
+		if(off<end && (s.charAt(off)=='-' || s.charAt(off)=='+'))
+		{
+			neg=s.charAt(off)=='-';
+			off++;
+		}
+		if(off==end)
+			throw new NumberFormatException("For input string: \""+s.subSequence(off,end)+"\"");
+		int v=0;
+		for(int i=off;i<end;i++)
+		{
+			char c=s.charAt(i);
+			if(c<'0' || c>'9')
+				throw new NumberFormatException("For input string: \""+s.subSequence(off-(neg?1:0),end)+"\"");
+			v=v*10+(c-'0');
+		}
+		return neg?-v:v;
+	}
+}
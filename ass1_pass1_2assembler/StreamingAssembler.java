@@ -0,0 +1,261 @@
+import java.util.*;
+import java.io.FileReader;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * Streaming assembly: Pass-I runs line by line and every IC record is turned
+ * into machine code right away instead of being collected for Pass-II.
+ * An operand that is not known yet (forward symbol, literal before its
+ * LTORG/END) is written as 000 and the byte position of its digits goes on
+ * the fix-up chain of that symbol/literal (symHead/litHead -> fixPos/fixNext,
+ * as in OnePassAssembler); the chain is patched and freed once the address is
+ * assigned. IC is discarded after every line, so memory grows with
+ * SYMTAB/LITTAB and the pending patches, not with the source.
+ *
+ * Lines are read and scanned by Pass1asm's SourceLexer and the text is written
+ * by TextObjectWriter, as in the other backends. Every address, known at once
+ * or patched later, must fit the 3-digit field: a later patch cannot widen it.
+ *
+ * Output has the same layout as PASS2.txt. Symbols still undefined at the end
+ * make assemble() throw, naming all of them; so do a missing END and a literal
+ * that was never placed.
+ * Usage: java StreamingAssembler [source] [output]
+ */
+public class StreamingAssembler {
+
+	Pass1asm pass1;
+	FileChannel out;
+	ByteBuffer buf;
+	long flushed=0; //bytes of out already written to the channel
+	TextObjectWriter text;
+	int symHead[],litHead[]; //newest fix-up + 1 of each symbol/literal, 0 if none
+	long fixPos[];           //file position of the address digits of a fix-up
+	int fixNext[];           //older fix-up + 1 on the same chain, or the next free one
+	int fixCount,free;
+	int litDone=0; //literals below this index already have their address
+
+	public StreamingAssembler()
+	{
+		pass1=new Pass1asm();
+		buf=ByteBuffer.allocate(1<<16);
+		text=new TextObjectWriter(new Sink());
+		symHead=new int[64];
+		litHead=new int[64];
+		fixPos=new long[64];
+		fixNext=new int[64];
+	}
+
+	public static void main(String[] args) {
+		String src=args.length>0?args[0]:"input.txt";
+		String dst=args.length>1?args[1]:"PASS2.txt";
+		try
+		{
+			new StreamingAssembler().assemble(src,dst);
+		}
+		catch (Exception e) {
+			System.out.println("Error: "+e);
+		}
+	}
+
+	public void assemble(String src,String dst) throws Exception
+	{
+		BufferedReader br=new BufferedReader(new FileReader(src));
+		out=FileChannel.open(Path.of(dst),StandardOpenOption.CREATE,StandardOpenOption.WRITE,StandardOpenOption.TRUNCATE_EXISTING);
+		try
+		{
+			boolean more=true;
+			while(more && pass1.lexer.readLine(br))
+			{
+				pass1.lines++;
+				more=pass1.step();
+				for(int i=0;i<pass1.IC.size();i++)
+					emit(pass1.IC.get(i));
+				pass1.IC.clear();
+				for(int k=0;k<pass1.definedCount;k++)
+				{
+					int index=pass1.defined[k];
+					if(index<symHead.length)
+					{
+						patch(symHead[index],pass1.SYMTAB.address(index));
+						symHead[index]=0;
+					}
+				}
+				//pools are placed in LITTAB order, so only literals from litDone on can be new
+				while(litDone<pass1.LITTAB.size() && pass1.LITTAB.get(litDone).getAddess()>=0)
+				{
+					if(litDone<litHead.length)
+					{
+						patch(litHead[litDone],pass1.LITTAB.get(litDone).getAddess());
+						litHead[litDone]=0;
+					}
+					litDone++;
+				}
+			}
+			flush();
+			if(more)
+				throw new IllegalStateException("Missing END");
+			StringBuilder undefined=new StringBuilder();
+			int count=0;
+			for(int i=1;i<symHead.length;i++)
+				if(symHead[i]!=0)
+					undefined.append(count++>0?", ":"").append(pass1.SYMTAB.name(i));
+			if(count>0)
+				throw new IllegalStateException("Undefined symbol"+(count>1?"s ":" ")+undefined);
+			for(int l=0;l<litHead.length;l++)
+				if(litHead[l]!=0)
+					throw new IllegalStateException("Literal ='"+pass1.LITTAB.get(l).getSymbol()+"' is never placed");
+		}
+		finally
+		{
+			out.close();
+			br.close();
+		}
+	}
+
+	void emit(long r) throws IOException
+	{
+		if(Pass2asm.isStop(r))
+		{
+			text.stop(0);
+			return;
+		}
+		if(IntermediateCode.clsOf(r)==OPtable.CLASS_AD)
+		{
+			text.directive(r);
+			return;
+		}
+		int kind=IntermediateCode.kindOf(r),value=IntermediateCode.valueOf(r);
+		int address=0;
+		boolean sym=false;
+		if(IntermediateCode.clsOf(r)==OPtable.CLASS_IS && kind==IntermediateCode.S)
+		{
+			address=pass1.SYMTAB.address(value);
+			sym=true;
+		}
+		else if(IntermediateCode.clsOf(r)==OPtable.CLASS_IS && kind==IntermediateCode.L)
+			address=pass1.LITTAB.get(value).getAddess();
+		else
+		{
+			text.word(0,r,0);
+			return;
+		}
+		if(address>=0)
+		{
+			text.word(0,r,field(address));
+			return;
+		}
+		//forward reference: leave 000 and remember where the address digits are
+		if(text.stopped)
+			return;
+		text.word(0,r,0);
+		int fix=alloc(flushed+buf.position()-4);
+		if(sym)
+		{
+			symHead=OnePassAssembler.grow(symHead,value);
+			fixNext[fix]=symHead[value];
+			symHead[value]=fix+1;
+		}
+		else
+		{
+			litHead=OnePassAssembler.grow(litHead,value);
+			fixNext[fix]=litHead[value];
+			litHead[value]=fix+1;
+		}
+	}
+
+	//The one rule for an address written into the 3-digit field, now or by a patch
+	static int field(int address) throws IOException
+	{
+		if(address<0 || address>999)
+			throw new IOException("Address "+address+" does not fit the 3-digit field");
+		return address;
+	}
+
+	int alloc(long pos)
+	{
+		int fix;
+		if(free!=0)
+		{
+			fix=free-1;
+			free=fixNext[fix];
+		}
+		else
+		{
+			if(fixCount==fixPos.length)
+			{
+				fixPos=Arrays.copyOf(fixPos,fixCount*2);
+				fixNext=Arrays.copyOf(fixNext,fixCount*2);
+			}
+			fix=fixCount++;
+		}
+		fixPos[fix]=pos;
+		return fix;
+	}
+
+	//Writes address into every fix-up on the chain starting at link-1 and frees them
+	void patch(int link,int address) throws IOException
+	{
+		if(link==0)
+			return;
+		field(address);
+		byte d0=(byte)('0'+address/100),d1=(byte)('0'+address/10%10),d2=(byte)('0'+address%10);
+		while(link!=0)
+		{
+			int fix=link-1;
+			long pos=fixPos[fix];
+			if(pos>=flushed)
+			{
+				int at=(int)(pos-flushed);
+				buf.put(at,d0).put(at+1,d1).put(at+2,d2);
+			}
+			else
+				out.write(ByteBuffer.wrap(new byte[]{d0,d1,d2}),pos);
+			link=fixNext[fix];
+			fixNext[fix]=free;
+			free=fix+1;
+		}
+	}
+
+	void flush() throws IOException
+	{
+		buf.flip();
+		while(buf.hasRemaining())
+			flushed+=out.write(buf,flushed);
+		buf.clear();
+	}
+
+	//TextObjectWriter's target: ASCII chars straight into buf, flushed to the channel when full
+	class Sink extends Writer
+	{
+		public void write(int c) throws IOException
+		{
+			if(!buf.hasRemaining())
+				StreamingAssembler.this.flush();
+			buf.put((byte)c);
+		}
+
+		public void write(String s,int off,int len) throws IOException
+		{
+			for(int i=off;i<off+len;i++)
+				write(s.charAt(i));
+		}
+
+		public void write(char c[],int off,int len) throws IOException
+		{
+			for(int i=off;i<off+len;i++)
+				write(c[i]);
+		}
+
+		public void flush() {
+		}
+
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,178 @@
+import java.util.*;
+
+/*
+ * SYMTAB without a Tables object per symbol.
+ * Symbols are numbered 1,2,3.. in insertion order (the index that goes into
+ * "(S,0n)"), names[] and addresses[] are indexed by index-1, and an
+ * open-addressing hash maps a name to its index. Redefining a symbol only
+ * overwrites its slot in addresses[].
+ * With the journal on, every overwritten address is logged so the table can
+ * be rolled back to an earlier state (used by IncrementalAssembler).
+ */
+public class SymbolTable {
+
+	String names[];
+	int addresses[];
+	int count;
+	int slots[]; //open addressing, holds index or 0 for empty
+	int journal[]; //(index, old address) pairs, null while the journal is off
+	int journalLen;
+
+	public SymbolTable()
+	{
+		names=new String[16];
+		addresses=new int[16];
+		slots=new int[32];
+		count=0;
+	}
+
+	public int size() {
+		return count;
+	}
+	public String name(int index) {
+		return names[index-1];
+	}
+	public int address(int index) {
+		return addresses[index-1];
+	}
+	public void setAddress(int index,int address) {
+		log(index);
+		addresses[index-1]=address;
+	}
+
+	//index of name, 0 if it is not in the table
+	public int find(String name)
+	{
+		return find(name,0,name.length());
+	}
+
+	//Same for the span s[off,off+len), without making a String of it
+	public int find(CharSequence s,int off,int len)
+	{
+		int mask=slots.length-1;
+		for(int h=hash(s,off,len)&mask;slots[h]!=0;h=(h+1)&mask)
+		{
+			if(equals(names[slots[h]-1],s,off,len))
+				return slots[h];
+		}
+		return 0;
+	}
+
+	static boolean equals(String name,CharSequence s,int off,int len)
+	{
+		if(name.length()!=len)
+			return false;
+		for(int i=0;i<len;i++)
+			if(name.charAt(i)!=s.charAt(off+i))
+				return false;
+		return true;
+	}
+
+	public boolean contains(String name) {
+		return find(name)!=0;
+	}
+
+	public int addressOf(String name)
+	{
+		return addressOf(name,0,name.length());
+	}
+
+	public int addressOf(CharSequence s,int off,int len)
+	{
+		int index=find(s,off,len);
+		if(index==0)
+			throw new IllegalArgumentException("Undefined symbol "+s.subSequence(off,off+len));
+		return address(index);
+	}
+
+	//Sets the address of name, adding it at the end if it is new; returns its index
+	public int define(String name,int address)
+	{
+		return define(name,0,name.length(),address);
+	}
+
+	//Same for a span; a String is only made when the symbol is new
+	public int define(CharSequence s,int off,int len,int address)
+	{
+		int index=find(s,off,len);
+		if(index!=0)
+		{
+			setAddress(index,address);
+			return index;
+		}
+		if(count==names.length)
+		{
+			names=Arrays.copyOf(names,count*2);
+			addresses=Arrays.copyOf(addresses,count*2);
+		}
+		names[count]=s.subSequence(off,off+len).toString();
+		addresses[count]=address;
+		count++;
+		if(count*2>slots.length)
+			rehash(slots.length*2);
+		else
+			insert(count);
+		return count;
+	}
+
+	//Records the current address of index in the journal, if it is on
+	void log(int index)
+	{
+		if(journal==null)
+			return;
+		if(journalLen+2>journal.length)
+			journal=Arrays.copyOf(journal,journal.length*2);
+		journal[journalLen++]=index;
+		journal[journalLen++]=addresses[index-1];
+	}
+
+	void insert(int index)
+	{
+		int mask=slots.length-1;
+		String name=names[index-1];
+		int s=hash(name,0,name.length())&mask;
+		while(slots[s]!=0)
+			s=(s+1)&mask;
+		slots[s]=index;
+	}
+
+	void rehash(int size)
+	{
+		slots=new int[size];
+		for(int i=1;i<=count;i++)
+			insert(i);
+	}
+
+	static int hash(CharSequence s,int off,int len)
+	{
+		int h=0;
+		for(int i=off;i<off+len;i++)
+			h=31*h+s.charAt(i);
+		return h^(h>>>16);
+	}
+
+	public void startJournal()
+	{
+		if(journal==null)
+			journal=new int[64];
+	}
+	public int journalSize() {
+		return journalLen;
+	}
+
+	//Undoes every change logged after journalSize() was journalLen and drops symbols past size
+	public void rollback(int journalLen,int size)
+	{
+		while(this.journalLen>journalLen)
+		{
+			this.journalLen-=2;
+			addresses[journal[this.journalLen]-1]=journal[this.journalLen+1];
+		}
+		if(size<count)
+		{
+			Arrays.fill(names,size,count,null);
+			count=size;
+			rehash(slots.length);
+		}
+	}
+}
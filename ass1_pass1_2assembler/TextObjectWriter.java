@@ -0,0 +1,82 @@
+import java.io.IOException;
+import java.io.Writer;
+
+/*
+ * PASS2.txt layout: "opcode\treg\taddress" per word and a blank line per AD
+ * record. Digits are written char by char, no String.format per word.
+ * Nothing after STOP is written, as in the original Pass-II.
+ * close() only flushes, the Writer belongs to the caller.
+ */
+public class TextObjectWriter implements ObjectWriter {
+
+	Writer bw;
+	boolean stopped;
+
+	public TextObjectWriter(Writer bw)
+	{
+		this.bw=bw;
+	}
+
+	public void word(int lc,long r,int address) throws IOException
+	{
+		if(stopped)
+			return;
+		if(IntermediateCode.clsOf(r)==OPtable.CLASS_DL) //DC/DS INSTR
+		{
+			bw.write("00\t00\t");
+			digits(IntermediateCode.valueOf(r),3);
+		}
+		else
+		{
+			digits(IntermediateCode.opcodeOf(r),2);
+			bw.write('\t');
+			bw.write('0');
+			if(IntermediateCode.regKindOf(r)!=IntermediateCode.NONE)
+				digits(IntermediateCode.regOf(r),1);
+			bw.write('\t');
+			digits(address,3);
+		}
+		bw.write('\n');
+	}
+
+	public void directive(long r) throws IOException
+	{
+		if(stopped)
+			return;
+		bw.write('\n');
+	}
+
+	public void stop(int lc) throws IOException
+	{
+		if(stopped)
+			return;
+		stopped=true;
+		bw.write("00\t00\t00\n");
+	}
+
+	public void close() throws IOException
+	{
+		bw.flush();
+	}
+
+	//Same text as String.format("%0"+width+"d", v)
+	void digits(int v,int width) throws IOException
+	{
+		if(v<0)
+		{
+			bw.write('-');
+			v=-v;
+			width--;
+		}
+		int n=1;
+		for(int t=v/10;t>0;t/=10)
+			n++;
+		for(int i=n;i<width;i++)
+			bw.write('0');
+		int pow=1;
+		for(int i=1;i<n;i++)
+			pow*=10;
+		for(;pow>0;pow/=10)
+			bw.write('0'+(v/pow)%10);
+	}
+}
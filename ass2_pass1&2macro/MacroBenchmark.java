@@ -0,0 +1,106 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Micro-benchmarks for MacroProcessor Pass-I and Pass-II on synthetic sources.
+ *
+ * The generated source defines macros M0..M<depth>, where Mk expands to a
+ * call of M(k-1) wrapped in two plain lines and M0 is a plain 3-line body.
+ * The program body has the given number of lines, callDensity of them being
+ * calls of the outermost macro. The generator is seeded, so the same
+ * parameters always produce the same source.
+ *
+ * All files go to a temporary directory. Each benchmark runs warmup
+ * iterations first, then prints the mean and best time per iteration.
+ *
+ * Usage: java MacroBenchmark [lines] [callDensity] [depth] [warmup] [iterations]
+ *   defaults: 10000 0.3 3 5 10
+ */
+public class MacroBenchmark {
+
+    interface Task {
+        void run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int lines = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        double calls = args.length > 1 ? Double.parseDouble(args[1]) : 0.3;
+        int depth = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        int warmup = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+        int iterations = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+
+        Path dir = Files.createTempDirectory("macrobench");
+        String src = dir.resolve("input_macro.txt").toString();
+        String mnt = dir.resolve("MNT.txt").toString();
+        String mdt = dir.resolve("MDT.txt").toString();
+        String ala = dir.resolve("ALA.txt").toString();
+        String expanded = dir.resolve("expanded.txt").toString();
+        Files.write(Path.of(src), generate(lines, calls, depth, 42));
+
+        System.out.println("lines=" + lines + " callDensity=" + calls + " depth=" + depth
+                + " warmup=" + warmup + " iterations=" + iterations);
+
+        measure("MacroProcessor.Pass1.run", warmup, iterations, () -> {
+            MacroProcessor.Pass1 p1 = new MacroProcessor.Pass1();
+            p1.srcFile = src; p1.mntFile = mnt; p1.mdtFile = mdt; p1.intermediateFile = ala;
+            p1.run();
+        });
+        measure("MacroProcessor.Pass2.run", warmup, iterations, () -> {
+            MacroProcessor.Pass2 p2 = new MacroProcessor.Pass2();
+            p2.mntFile = mnt; p2.mdtFile = mdt; p2.intermediateFile = ala; p2.expandedFile = expanded;
+            p2.run();
+        });
+        measure("MacroProcessor.Pass2.runStreaming", warmup, iterations, () -> {
+            MacroProcessor.Pass2 p2 = new MacroProcessor.Pass2();
+            p2.mntFile = mnt; p2.mdtFile = mdt; p2.intermediateFile = ala; p2.expandedFile = expanded;
+            p2.runStreaming();
+        });
+        System.out.println("expanded lines: " + Files.readAllLines(Path.of(expanded)).size());
+    }
+
+    static void measure(String name, int warmup, int iterations, Task task) throws Exception {
+        for (int i = 0; i < warmup; i++) task.run();
+        long total = 0, best = Long.MAX_VALUE;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            task.run();
+            long t = System.nanoTime() - start;
+            total += t;
+            best = Math.min(best, t);
+        }
+        System.out.println(String.format("%-40s mean %10.1f us   best %10.1f us", name, total / 1e3 / iterations, best / 1e3));
+    }
+
+    static List<String> generate(int lines, double callDensity, int depth, long seed) {
+        Random rnd = new Random(seed);
+        List<String> out = new ArrayList<>();
+        for (int k = 0; k <= depth; k++) {
+            out.add("MACRO");
+            out.add("M" + k + "       &A,&B,&R=AREG");
+            if (k == 0) {
+                out.add("MOVER    &R,&A");
+                out.add("ADD      &R,&B");
+                out.add("MOVEM    &R,&A");
+            } else {
+                out.add("MOVEM    BREG,TMP");
+                out.add("M" + (k - 1) + "       &A,&B,&R");
+                out.add("MOVER    BREG,TMP");
+            }
+            out.add("MEND");
+        }
+        String regs[] = {"AREG", "BREG", "CREG"};
+        out.add("START    100");
+        for (int i = 0; i < lines; i++) {
+            if (rnd.nextDouble() < callDensity) {
+                String call = "M" + depth + "       X" + rnd.nextInt(50) + ",Y" + rnd.nextInt(50);
+                if (rnd.nextBoolean()) call += ",&R=" + regs[rnd.nextInt(regs.length)];
+                out.add(call);
+            } else {
+                out.add("MOVER    " + regs[rnd.nextInt(regs.length)] + ",X" + rnd.nextInt(50));
+            }
+        }
+        out.add("END");
+        return out;
+    }
+}
@@ -1,7 +1,6 @@
 import java.io.*;
 import java.nio.file.*;
 import java.util.*;
-import java.util.regex.*;
 
 /**
  * Two-Pass Macroprocessor
@@ -18,7 +17,13 @@ import java.util.regex.*;
  *   - Reads intermediate.txt, mnt.txt, mdt.txt
  *   - Expands macro invocations with positional/keyword args (+ defaults)
  *   - Handles nested macro calls during expansion
+ *   - A MACRO..MEND block inside a body is defined when the body is expanded,
+ *     with the actuals of that call filled in, and added to the MNT/MDT in
+ *     memory; later lines can call it
+ *   - Remembers the full expansion of recent (macro, actuals) pairs in an LRU cache
  *   - Writes expanded.txt
+ *   - With -stream: reads and writes line by line with a stack of expansion
+ *     frames, memory grows with the nesting depth only (no cache)
  *
  * Macro syntax:
  *   MACRO
@@ -26,6 +31,15 @@ import java.util.regex.*;
  *     ... body ...
  *   MEND
  *
+ * Macro-defining macro (DEFINE CALC defines CALC):
+ *   MACRO
+ *   DEFINE &N
+ *   MACRO
+ *   &N &X,&Y
+ *     ... body ...
+ *   MEND
+ *   MEND
+ *
  * Call examples:
  *   NAME X, Y, 10              ; positional
  *   NAME &B=CREG, &A=AREG      ; keyword (order-free); defaults used if missing
@@ -43,14 +57,24 @@ public class MacroProcessor {
     static final String EXPANDED_FILE = "expanded.txt";
 
     public static void main(String[] args) {
+        boolean stream = Arrays.asList(args).contains("-stream");
         try {
             System.out.println("Pass-I: Building MNT/MDT + intermediate...");
             new Pass1().run();
             System.out.println("Pass-I done: mnt.txt, mdt.txt, intermediate.txt");
 
             System.out.println("Pass-II: Expanding macros...");
-            new Pass2().run();
-            System.out.println("Pass-II done: expanded.txt");
+            Pass2 pass2 = new Pass2();
+            if (stream) {
+                pass2.runStreaming();
+                System.out.println("Pass-II done: expanded.txt");
+            } else {
+                pass2.run();
+                System.out.println("Pass-II done: expanded.txt");
+                System.out.println("Expansion cache: " + pass2.cacheHits + " hits, " + pass2.cacheMisses + " misses");
+            }
+            if (pass2.defined > 0)
+                System.out.println("Macros defined during expansion: " + pass2.defined);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -71,6 +95,152 @@ public class MacroProcessor {
     // MDT is just a 1-based list of strings. Each string may include #1, #2 placeholders.
     // We'll write it as lines with an index in a text file.
 
+    /**
+     * One MDT line compiled into literal segments and parameter slots, so a
+     * line is scanned once and expanding it is a single append pass.
+     * segments.length == slots.length + 1; a slot is a 0-based parameter position.
+     */
+    static class Template {
+        final String[] segments;
+        final int[] slots;
+
+        Template(List<String> segments, List<Integer> slots) {
+            this.segments = segments.toArray(new String[0]);
+            this.slots = new int[slots.size()];
+            for (int i = 0; i < this.slots.length; i++) this.slots[i] = slots.get(i);
+        }
+
+        // Pass-II form: "#n" with n >= 1; the whole digit run is the number, so #1 and #10 differ
+        static Template fromMDT(String line) {
+            List<String> segments = new ArrayList<>();
+            List<Integer> slots = new ArrayList<>();
+            int from = 0, i = 0;
+            while (i < line.length()) {
+                int end = i + 1;
+                if (line.charAt(i) == '#' && end < line.length() && line.charAt(end) >= '1' && line.charAt(end) <= '9') {
+                    int n = 0;
+                    while (end < line.length() && Character.isDigit(line.charAt(end)))
+                        n = n * 10 + (line.charAt(end++) - '0');
+                    segments.add(line.substring(from, i));
+                    slots.add(n - 1);
+                    from = end;
+                }
+                i = end;
+            }
+            segments.add(line.substring(from));
+            return new Template(segments, slots);
+        }
+
+        // Pass-I form: a formal "&NAME" (any case, not part of a longer word); upperPos maps "&NAME" to its position
+        static Template fromBody(String line, Map<String, Integer> upperPos) {
+            List<String> segments = new ArrayList<>();
+            List<Integer> slots = new ArrayList<>();
+            int from = 0, i = 0;
+            while (i < line.length()) {
+                int end = i + 1;
+                if (line.charAt(i) == '&' && (i == 0 || !isWordChar(line.charAt(i - 1)))) {
+                    while (end < line.length() && isWordChar(line.charAt(end))) end++;
+                    Integer p = upperPos.get(line.substring(i, end).toUpperCase(Locale.ROOT));
+                    if (p != null) {
+                        segments.add(line.substring(from, i));
+                        slots.add(p - 1);
+                        from = end;
+                    } else {
+                        end = i + 1;
+                    }
+                }
+                i = end;
+            }
+            segments.add(line.substring(from));
+            return new Template(segments, slots);
+        }
+
+        static boolean isWordChar(char c) {
+            return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_';
+        }
+
+        // Appends the line with slot k replaced by actuals[k]; a slot past the actuals stays "#n"
+        void appendTo(StringBuilder sb, String[] actuals) {
+            sb.append(segments[0]);
+            for (int k = 0; k < slots.length; k++) {
+                if (slots[k] < actuals.length) sb.append(actuals[slots[k]]);
+                else sb.append('#').append(slots[k] + 1);
+                sb.append(segments[k + 1]);
+            }
+        }
+
+        // MDT text of the line, slots written as #n
+        String toMDT() {
+            StringBuilder sb = new StringBuilder(segments[0]);
+            for (int k = 0; k < slots.length; k++)
+                sb.append('#').append(slots[k] + 1).append(segments[k + 1]);
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Macro names by their upper-case form, looked up by a char span of the raw
+     * line: hashing and comparing fold case per char, so probing the first token
+     * of a line allocates nothing. Keys are folded the same way, never with the
+     * default locale (a Turkish locale would turn "init" into a key with a
+     * dotted I). Open addressing with linear probing, kept at most half full.
+     * A later put of the same name replaces the entry.
+     */
+    static class NameIndex {
+        String[] keys = new String[16];
+        MNTEntry[] values = new MNTEntry[16];
+        int size;
+
+        static char fold(char c) {
+            return Character.toUpperCase(c);
+        }
+
+        static int hash(CharSequence s, int off, int len) {
+            int h = len;
+            for (int i = off; i < off + len; i++) h = h * 31 + fold(s.charAt(i));
+            return h ^ (h >>> 16);
+        }
+
+        // Entry named s[off, off+len) in any case, or null
+        MNTEntry get(CharSequence s, int off, int len) {
+            int mask = keys.length - 1;
+            for (int slot = hash(s, off, len) & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+                if (matches(keys[slot], s, off, len)) return values[slot];
+            }
+            return null;
+        }
+
+        static boolean matches(String key, CharSequence s, int off, int len) {
+            if (key.length() != len) return false;
+            for (int i = 0; i < len; i++)
+                if (key.charAt(i) != fold(s.charAt(off + i))) return false;
+            return true;
+        }
+
+        void put(String name, MNTEntry e) {
+            if (2 * (size + 1) > keys.length) grow();
+            char[] folded = new char[name.length()];
+            for (int i = 0; i < folded.length; i++) folded[i] = fold(name.charAt(i));
+            String key = new String(folded);
+            int mask = keys.length - 1;
+            int slot = hash(key, 0, key.length()) & mask;
+            while (keys[slot] != null && !keys[slot].equals(key)) slot = (slot + 1) & mask;
+            if (keys[slot] == null) size++;
+            keys[slot] = key;
+            values[slot] = e;
+        }
+
+        private void grow() {
+            String[] oldKeys = keys;
+            MNTEntry[] oldValues = values;
+            keys = new String[oldKeys.length * 2];
+            values = new MNTEntry[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++)
+                if (oldKeys[i] != null) put(oldKeys[i], oldValues[i]);
+        }
+    }
+
     // ---------- Utilities ----------
     static String sanitize(String s) {
         if (s == null) return "";
@@ -101,8 +271,11 @@ public class MacroProcessor {
         List<String> mdt = new ArrayList<>(); // 1-based (we'll pad a dummy entry at index 0)
         List<MNTEntry> mnt = new ArrayList<>(); // 1-based (dummy at 0)
 
+        // Input/output files (defaults above; overridden by MacroBenchmark)
+        String srcFile = SRC, mntFile = MNT_FILE, mdtFile = MDT_FILE, intermediateFile = INTERMEDIATE_FILE;
+
         void run() throws IOException {
-            List<String> src = readLines(SRC);
+            List<String> src = readLines(srcFile);
             List<String> intermediate = new ArrayList<>();
 
             // 1-based indexing by adding a dummy first element
@@ -123,21 +296,23 @@ public class MacroProcessor {
                         throw new RuntimeException("Empty macro header");
 
                     MNTEntry entry = parseHeader(header);
+                    Map<String, Integer> upperPos = upperPositions(entry);
 
                     // MDT start
                     entry.mdtStart = mdt.size(); // first body line will go here
 
-                    // Read body until MEND
+                    // Read body until the MEND of this macro; inner MACRO..MEND blocks stay in the body
+                    int depth = 0;
                     while (i < src.size()) {
                         String b = sanitize(src.get(i++));
                         if (isBlank(b)) continue;
-                        if (b.equalsIgnoreCase("MEND")) {
+                        if (b.equalsIgnoreCase("MACRO")) depth++;
+                        if (b.equalsIgnoreCase("MEND") && depth-- == 0) {
                             mdt.add("MEND");
                             break;
                         }
                         // Replace all occurrences of formals (&A, &B ...) with #position
-                        String replaced = replaceFormalsWithPos(b, entry.pos);
-                        mdt.add(replaced);
+                        mdt.add(Template.fromBody(b, upperPos).toMDT());
                     }
 
                     // Store entry
@@ -152,15 +327,15 @@ public class MacroProcessor {
             // Write tables
             writeMNT();
             writeMDT();
-            writeLines(INTERMEDIATE_FILE, intermediate);
+            writeLines(intermediateFile, intermediate);
         }
 
-        private MNTEntry parseHeader(String header) {
+        static MNTEntry parseHeader(String header) {
             // Example: "INCR &REG,&VAL=1"
             // Split first token (name), rest are params (comma-separated)
             String[] parts = header.split("\\s+", 2);
             if (parts.length < 1) throw new RuntimeException("Bad header: " + header);
-            String name = parts[0].trim().toUpperCase();
+            String name = parts[0].trim().toUpperCase(Locale.ROOT);
             String paramStr = (parts.length == 2) ? parts[1].trim() : "";
 
             // Parse parameter list
@@ -199,17 +374,12 @@ public class MacroProcessor {
             return e;
         }
 
-        private String replaceFormalsWithPos(String bodyLine, Map<String, Integer> pos) {
-            // Replace tokens starting with & that match formals
-            // Use regex to find &NAME style tokens (letters/digits/_)
-            String out = bodyLine;
-            for (Map.Entry<String, Integer> en : pos.entrySet()) {
-                String formal = Pattern.quote(en.getKey());
-                int p = en.getValue();
-                // Replace both "&A" and "&A," etc. We'll do a word-boundary-ish replace:
-                out = out.replaceAll("(?i)(?<![A-Za-z0-9_])" + formal + "(?![A-Za-z0-9_])", "#" + p);
-            }
-            return out;
+        // "&NAME" (upper case) -> position, for Template.fromBody
+        static Map<String, Integer> upperPositions(MNTEntry e) {
+            Map<String, Integer> upperPos = new HashMap<>();
+            for (Map.Entry<String, Integer> en : e.pos.entrySet())
+                upperPos.putIfAbsent(en.getKey().toUpperCase(Locale.ROOT), en.getValue());
+            return upperPos;
         }
 
         private void writeMNT() throws IOException {
@@ -231,7 +401,7 @@ public class MacroProcessor {
                     out.add("#DEFAULTS");
                 }
             }
-            writeLines(MNT_FILE, out);
+            writeLines(mntFile, out);
         }
 
         private void writeMDT() throws IOException {
@@ -240,7 +410,7 @@ public class MacroProcessor {
             for (int i = 1; i < mdt.size(); i++) {
                 out.add(String.format("%-6d %s", i, mdt.get(i)));
             }
-            writeLines(MDT_FILE, out);
+            writeLines(mdtFile, out);
         }
     }
 
@@ -252,75 +422,209 @@ public class MacroProcessor {
         // Reconstructed tables
         List<MNTEntry> mnt = new ArrayList<>(); // 1-based (dummy at 0)
         List<String> mdt = new ArrayList<>();         // 1-based (dummy at 0)
-        Map<String, MNTEntry> macroByName = new HashMap<>();
+        List<Template> templates = new ArrayList<>(); // compiled mdt lines, same indices
+        StringBuilder line = new StringBuilder();    // reused while expanding
+        NameIndex macroByName = new NameIndex();
+        int defined;                                  // macros defined by expansions
+
+        // Fully expanded lines per (macro, actuals), least recently used entry dropped first.
+        // A new definition can change any expansion, so it empties the cache, and an
+        // expansion that defined a macro is not cached (it must define it again when repeated)
+        static final int MAX_DEPTH = 1000;
+        int cacheSize = 1024;
+        long cacheHits, cacheMisses;
+        Map<String, List<String>> cache = new LinkedHashMap<>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, List<String>> eldest) {
+                return size() > cacheSize;
+            }
+        };
+
+        // Input/output files (defaults above; overridden by MacroBenchmark)
+        String mntFile = MNT_FILE, mdtFile = MDT_FILE, intermediateFile = INTERMEDIATE_FILE, expandedFile = EXPANDED_FILE;
+
+        // A macro call being expanded: the next MDT line to emit and the actuals to fill in
+        static class Frame {
+            MNTEntry macro;
+            int cursor;
+            String[] actuals;
+        }
 
         void run() throws IOException {
             readMNT();
             readMDT();
 
-            List<String> input = readLines(INTERMEDIATE_FILE);
-            Deque<String> work = new ArrayDeque<>();
+            List<String> input = readLines(intermediateFile);
+            List<String> output = new ArrayList<>();
+
             for (String s : input) {
                 String line = sanitize(s);
-                if (!isBlank(line)) work.add(line);
+                if (isBlank(line)) continue;
+                MNTEntry e = macroAt(line);
+                if (e != null) {
+                    // Nested calls are already expanded in the returned lines
+                    output.addAll(expandFully(line, e, 0));
+                } else {
+                    output.add(line);
+                }
             }
 
-            List<String> output = new ArrayList<>();
+            writeLines(expandedFile, output);
+        }
+
+        // Same result as run(), written while it is produced; only the open calls are kept
+        void runStreaming() throws IOException {
+            readMNT();
+            readMDT();
 
-            while (!work.isEmpty()) {
-                String line = work.pollFirst();
-                if (isMacroCall(line)) {
-                    List<String> expanded = expandOne(line);
-                    // Support nested expansions: push expanded lines to front
-                    for (int k = expanded.size() - 1; k >= 0; k--) {
-                        work.addFirst(expanded.get(k));
+            Deque<Frame> stack = new ArrayDeque<>();
+            try (BufferedReader in = Files.newBufferedReader(Path.of(intermediateFile));
+                 BufferedWriter out = Files.newBufferedWriter(Path.of(expandedFile))) {
+                String s;
+                while ((s = in.readLine()) != null) {
+                    String text = sanitize(s);
+                    if (isBlank(text)) continue;
+                    MNTEntry e = macroAt(text);
+                    if (e == null) {
+                        out.write(text);
+                        out.newLine();
+                        continue;
+                    }
+                    stack.push(call(text, e));
+                    while (!stack.isEmpty()) {
+                        Frame f = stack.peek();
+                        if (f.cursor >= mdt.size() || mdt.get(f.cursor).equalsIgnoreCase("MEND")) {
+                            stack.pop();
+                            continue;
+                        }
+                        if (mdt.get(f.cursor).equalsIgnoreCase("MACRO")) {
+                            f.cursor = define(f.cursor, f.actuals);
+                            continue;
+                        }
+                        line.setLength(0);
+                        templates.get(f.cursor++).appendTo(line, f.actuals);
+                        MNTEntry m = macroAt(line);
+                        String l = line.toString();
+                        if (m != null) {
+                            if (stack.size() >= MAX_DEPTH)
+                                throw new RuntimeException("Macro calls nested deeper than " + MAX_DEPTH + ": " + l);
+                            stack.push(call(l, m));
+                        } else {
+                            out.write(l);
+                            out.newLine();
+                        }
                     }
-                } else {
-                    output.add(line);
                 }
             }
+        }
 
-            writeLines(EXPANDED_FILE, output);
+        // Frame for a call line of macro e (found by macroAt), positioned at the first body line
+        private Frame call(String callLine, MNTEntry e) {
+            // Example call:  INCR AREG,5  OR  INCR &VAL=10,&REG=CREG
+            int start = skipSpace(callLine, 0);
+            String argStr = callLine.substring(tokenEnd(callLine, start)).trim();
+            Frame f = new Frame();
+            f.macro = e;
+            // Build ALA (Actual -> positional): #1 -> actualValue etc.
+            f.actuals = buildActualList(argStr, e);
+            f.cursor = e.mdtStart;
+            return f;
         }
 
-        private boolean isMacroCall(String line) {
-            // A macro call starts with a known macro name (case-insensitive)
-            String first = firstToken(line);
-            return first != null && macroByName.containsKey(first.toUpperCase());
+        // The macro a line calls: its first token names a known macro (case-insensitive); null if none
+        MNTEntry macroAt(CharSequence line) {
+            int start = skipSpace(line, 0);
+            int end = tokenEnd(line, start);
+            return end > start ? macroByName.get(line, start, end - start) : null;
         }
 
-        private String firstToken(String line) {
-            String[] p = line.trim().split("\\s+", 2);
-            return p.length > 0 ? p[0] : null;
+        // Whitespace as in the regex \s
+        static boolean isSpace(char c) {
+            return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == '\u000B';
         }
 
-        private List<String> expandOne(String callLine) {
-            // Example call:  INCR AREG,5  OR  INCR &VAL=10,&REG=CREG
-            String[] parts = callLine.trim().split("\\s+", 2);
-            String name = parts[0].toUpperCase();
-            String argStr = (parts.length == 2) ? parts[1].trim() : "";
-
-            MNTEntry e = macroByName.get(name);
-            if (e == null) {
-                // Should not happen due to isMacroCall() check, but be safe.
-                return List.of(callLine);
-            }
+        static int skipSpace(CharSequence s, int i) {
+            while (i < s.length() && isSpace(s.charAt(i))) i++;
+            return i;
+        }
 
-            // Build ALA (Actual -> positional): #1 -> actualValue etc.
-            String[] actuals = buildActualList(argStr, e);
+        static int tokenEnd(CharSequence s, int i) {
+            while (i < s.length() && !isSpace(s.charAt(i))) i++;
+            return i;
+        }
+
+        // Expansion of a call with every nested call expanded too, from the cache when the same call was seen
+        private List<String> expandFully(String callLine, MNTEntry e, int depth) {
+            Frame f = call(callLine, e);
+            String[] actuals = f.actuals;
+            String key = e.name + '\0' + String.join("\0", actuals);
+            List<String> cached = cache.get(key);
+            if (cached != null) {
+                cacheHits++;
+                return cached;
+            }
+            cacheMisses++;
+            if (depth >= MAX_DEPTH)
+                throw new RuntimeException("Macro calls nested deeper than " + MAX_DEPTH + ": " + callLine);
 
             // Walk MDT from e.mdtStart until "MEND", substitute #i with actuals[i-1]
+            int before = defined;
             List<String> out = new ArrayList<>();
             int i = e.mdtStart;
             while (i < mdt.size()) {
-                String body = mdt.get(i++);
+                String body = mdt.get(i);
                 if (body.equalsIgnoreCase("MEND")) break;
-                String expanded = substituteActuals(body, actuals);
-                out.add(expanded);
+                if (body.equalsIgnoreCase("MACRO")) {
+                    i = define(i, actuals);
+                    continue;
+                }
+                line.setLength(0);
+                templates.get(i++).appendTo(line, actuals);
+                MNTEntry m = macroAt(line);
+                String l = line.toString();
+                if (m != null) out.addAll(expandFully(l, m, depth + 1));
+                else out.add(l);
             }
+            if (defined == before) cache.put(key, out);
             return out;
         }
 
+        // Defines the macro whose MACRO line is at cursor, filling in the actuals of the call
+        // being expanded; returns the cursor past its MEND
+        private int define(int cursor, String[] actuals) {
+            int end = mdt.size();
+            if (cursor + 1 >= end || mdt.get(cursor + 1).equalsIgnoreCase("MEND"))
+                throw new RuntimeException("MACRO without header at MDT " + cursor);
+            line.setLength(0);
+            templates.get(cursor + 1).appendTo(line, actuals);
+            MNTEntry e = Pass1.parseHeader(line.toString());
+            Map<String, Integer> upperPos = Pass1.upperPositions(e);
+            e.mdtStart = end;
+
+            // Copy the body up to the matching MEND; its own inner definitions are copied as they are
+            int i = cursor + 2, depth = 0;
+            for (; i < end; i++) {
+                String body = mdt.get(i);
+                if (body.equalsIgnoreCase("MACRO")) depth++;
+                if (body.equalsIgnoreCase("MEND") && depth-- == 0) break;
+                line.setLength(0);
+                templates.get(i).appendTo(line, actuals);
+                Template t = Template.fromBody(line.toString(), upperPos);
+                mdt.add(t.toMDT());
+                templates.add(t);
+            }
+            if (i == end)
+                throw new RuntimeException("MACRO " + e.name + " without MEND");
+            mdt.add("MEND");
+            templates.add(Template.fromMDT("MEND"));
+
+            e.index = mnt.size();
+            mnt.add(e);
+            macroByName.put(e.name, e);
+            defined++;
+            cache.clear();
+            return i + 1;
+        }
+
         private String[] buildActualList(String argStr, MNTEntry e) {
             int n = e.formals.size();
             String[] actuals = new String[n]; // null means not provided yet
@@ -339,7 +643,7 @@ public class MacroProcessor {
                         String val = t.substring(eq + 1).trim();
                         // key may be "&A" or "A"; normalize to "&A"
                         if (!key.startsWith("&")) key = "&" + key;
-                        keyed.put(key.toUpperCase(), val);
+                        keyed.put(key.toUpperCase(Locale.ROOT), val);
                     } else {
                         posArgs.add(t);
                     }
@@ -353,7 +657,7 @@ public class MacroProcessor {
             }
             // Fill keyword overrides
             for (int k = 0; k < n; k++) {
-                String f = e.formals.get(k).toUpperCase();
+                String f = e.formals.get(k).toUpperCase(Locale.ROOT);
                 if (keyed.containsKey(f)) {
                     actuals[k] = keyed.get(f);
                 }
@@ -371,20 +675,9 @@ public class MacroProcessor {
             return actuals;
         }
 
-        private String substituteActuals(String body, String[] actuals) {
-            String out = body;
-            // Replace #1, #2, ...
-            for (int i = 0; i < actuals.length; i++) {
-                String placeholder = "#" + (i + 1);
-                // Replace occurrences not embedded in larger tokens of digits
-                out = out.replace(placeholder, actuals[i]);
-            }
-            return out;
-        }
-
         // --------- Read Tables produced by Pass-I ----------
         void readMNT() throws IOException {
-            List<String> lines = readLines(MNT_FILE);
+            List<String> lines = readLines(mntFile);
             // Expect blocks:
             // IDX NAME MDTST PARAMS DEFKEYS
             // #PARAMS &A,&B,&C
@@ -394,14 +687,14 @@ public class MacroProcessor {
                 String s = sanitize(lines.get(i));
                 if (isBlank(s)) { i++; continue; }
                 if (s.startsWith("#")) { i++; continue; }
-                if (s.toUpperCase().startsWith("IDX")) { i++; continue; }
+                if (s.toUpperCase(Locale.ROOT).startsWith("IDX")) { i++; continue; }
 
                 String[] cols = s.trim().split("\\s+");
                 if (cols.length < 5) { i++; continue; }
 
                 MNTEntry e = new MNTEntry();
                 e.index = Integer.parseInt(cols[0]);
-                e.name  = cols[1].toUpperCase();
+                e.name  = cols[1].toUpperCase(Locale.ROOT);
                 e.mdtStart = Integer.parseInt(cols[2]);
 
                 // Read the next two meta lines (#PARAMS, #DEFAULTS)
@@ -413,7 +706,7 @@ public class MacroProcessor {
                 e.pos = new HashMap<>();
                 e.defaults = new HashMap<>();
 
-                if (paramsLine.toUpperCase().startsWith("#PARAMS")) {
+                if (paramsLine.toUpperCase(Locale.ROOT).startsWith("#PARAMS")) {
                     String p = paramsLine.substring("#PARAMS".length()).trim();
                     if (!p.isEmpty()) {
                         if (p.startsWith("&")) {
@@ -421,14 +714,14 @@ public class MacroProcessor {
                                 String f = tok.trim();
                                 if (!f.isEmpty()) {
                                     e.formals.add(f);
-                                    e.pos.put(f.toUpperCase(), e.formals.size());
+                                    e.pos.put(f.toUpperCase(Locale.ROOT), e.formals.size());
                                 }
                             }
                         }
                     }
                 }
 
-                if (defaultsLine.toUpperCase().startsWith("#DEFAULTS")) {
+                if (defaultsLine.toUpperCase(Locale.ROOT).startsWith("#DEFAULTS")) {
                     String d = defaultsLine.substring("#DEFAULTS".length()).trim();
                     if (!d.isEmpty()) {
                         for (String tok : d.split(",")) {
@@ -450,8 +743,9 @@ public class MacroProcessor {
         }
 
         void readMDT() throws IOException {
-            List<String> lines = readLines(MDT_FILE);
+            List<String> lines = readLines(mdtFile);
             mdt.add("<dummy>"); // 1-based
+            templates.add(null);
             for (int i = 1; i < lines.size(); i++) {
                 String s = lines.get(i);
                 if (s.trim().isEmpty()) continue;
@@ -462,6 +756,7 @@ public class MacroProcessor {
                 String rest = s.substring(firstSpace).trim();
                 // rest begins with the line content
                 mdt.add(rest);
+                templates.add(Template.fromMDT(rest));
             }
         }
     }